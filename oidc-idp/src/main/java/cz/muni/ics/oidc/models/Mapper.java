@@ -124,17 +124,33 @@ public class Mapper {
 	 * @return RichUser mapped from JsonNode
 	 */
 	public static RichUser mapRichUser(JsonNode jsonNode) {
-		Map<String, JsonNode> map = new HashMap<>();
 		Long id = jsonNode.get("id").asLong();
+		return mapRichUser(id, jsonNode.get("userAttributes"));
+	}
+
+	/**
+	 * Maps list of user attributes to RichUser model
+	 *
+	 * @param id user id
+	 * @param attributesNode list of attributes in Json format
+	 * @return RichUser with raw attribute values and times when they were set
+	 */
+	public static RichUser mapRichUser(Long id, JsonNode attributesNode) {
+		Map<String, JsonNode> map = new HashMap<>();
+		Map<String, String> valuesCreatedAt = new HashMap<>();
 		RichUser richUser = new RichUser(id);
-		JsonNode attributesNode = jsonNode.get("userAttributes");
 		for (int i = 0; i < attributesNode.size(); i++) {
 			String friendlyName = attributesNode.get(i).get("friendlyName").asText();
 			String namespace = attributesNode.get(i).get("namespace").asText();
 			JsonNode valueNode = attributesNode.get(i).get("value");
 			map.put(namespace + ":" + friendlyName, valueNode);
+			JsonNode valueCreatedAt = attributesNode.get(i).get("valueCreatedAt");
+			if (valueCreatedAt != null && !valueCreatedAt.isNull()) {
+				valuesCreatedAt.put(namespace + ":" + friendlyName, valueCreatedAt.asText());
+			}
 		}
 		richUser.setAttributes(map);
+		richUser.setValuesCreatedAt(valuesCreatedAt);
 		return richUser;
 	}
 
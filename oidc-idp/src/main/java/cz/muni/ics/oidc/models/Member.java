@@ -20,6 +20,10 @@ public class Member extends Model {
 		this.status = status;
 	}
 
+	public Long getUserId() {
+		return userId;
+	}
+
 	public Long getVoId() {
 		return voId;
 	}
@@ -2,6 +2,7 @@ package cz.muni.ics.oidc.models;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -13,6 +14,7 @@ import java.util.Map;
 public class RichUser extends Model {
 
 	private Map<String, JsonNode> attributes = new LinkedHashMap<>();
+	private Map<String, String> valuesCreatedAt = new HashMap<>();
 
 	public RichUser(Long id) {
 		super(id);
@@ -35,6 +37,20 @@ public class RichUser extends Model {
 		return attributes.get(attrName);
 	}
 
+	/**
+	 * Gets time when the value of the attribute was set, known only for attributes fetched from Perun RPC.
+	 *
+	 * @param attrName attribute name
+	 * @return timestamp in format yyyy-mm-dd hh:mm:ss[.f...] or null
+	 */
+	public String getValueCreatedAt(String attrName) {
+		return valuesCreatedAt.get(attrName);
+	}
+
+	public void setValuesCreatedAt(Map<String, String> valuesCreatedAt) {
+		this.valuesCreatedAt = valuesCreatedAt;
+	}
+
 	@Override
 	public String toString() {
 		return "RichUser{" +
@@ -0,0 +1,152 @@
+package cz.muni.ics.oidc.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.nimbusds.jose.util.JSONObjectUtils;
+import cz.muni.ics.oidc.server.claims.PerunCustomClaimDefinition;
+import net.minidev.json.JSONArray;
+import org.mitre.openid.connect.model.UserInfo;
+import org.mitre.openid.connect.service.ScopeClaimTranslationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Claims of a user allowed by a set of scopes, prepared in the representations needed
+ * by the ID token (json-smart), introspection (Gson elements) and consent page (Gson object).
+ * Claims marked as userinfo only are left out from the ID token and introspection representations,
+ * size limits of claims are applied only to these representations.
+ * Projections are kept in {@link PerunUserInfo} for each set of scopes, so they are shared
+ * and must not be modified.
+ */
+public class ClaimsProjection {
+
+	private final static Logger log = LoggerFactory.getLogger(ClaimsProjection.class);
+
+	private static final Gson gson = new Gson();
+
+	private final JsonObject json;
+	private final Map<String, JsonElement> claims;
+	private final Map<String, Object> jwtClaims;
+
+	private ClaimsProjection(JsonObject json, Map<String, JsonElement> claims, Map<String, Object> jwtClaims) {
+		this.json = json;
+		this.claims = Collections.unmodifiableMap(claims);
+		this.jwtClaims = Collections.unmodifiableMap(jwtClaims);
+	}
+
+	/**
+	 * Gets projection of user claims for the given scopes.
+	 *
+	 * @param userInfo user info
+	 * @param scopes granted scopes
+	 * @param translator translation of scopes to claims
+	 * @return claims allowed by the scopes
+	 */
+	public static ClaimsProjection of(UserInfo userInfo, Set<String> scopes, ScopeClaimTranslationService translator) {
+		if (userInfo instanceof PerunUserInfo) {
+			return ((PerunUserInfo) userInfo).getProjection(scopes, translator);
+		}
+		return create(userInfo.toJson(), translator.getClaimsForScopeSet(scopes), translator, null);
+	}
+
+	/**
+	 * Creates projection from all claims of a user.
+	 *
+	 * @param userJson all claims
+	 * @param authorizedClaims claims to keep
+	 * @param translator translation of scopes to claims, knows which claims are userinfo only or limited
+	 * @param clientId client the claims are released to, or null
+	 */
+	static ClaimsProjection create(JsonObject userJson, Set<String> authorizedClaims, ScopeClaimTranslationService translator,
+								   String clientId) {
+		Set<String> userinfoOnlyClaims = Collections.emptySet();
+		Map<String, PerunCustomClaimDefinition> sizeLimitedClaims = Collections.emptyMap();
+		if (translator instanceof PerunScopeClaimTranslationService) {
+			userinfoOnlyClaims = ((PerunScopeClaimTranslationService) translator).getUserinfoOnlyClaims();
+			sizeLimitedClaims = ((PerunScopeClaimTranslationService) translator).getSizeLimitedClaims();
+		}
+		JsonObject json = new JsonObject();
+		Map<String, JsonElement> claims = new LinkedHashMap<>();
+		Map<String, Object> jwtClaims = new LinkedHashMap<>();
+		for (Map.Entry<String, JsonElement> claim : userJson.entrySet()) {
+			String claimKey = claim.getKey();
+			JsonElement claimValue = claim.getValue();
+			if (authorizedClaims.contains(claimKey) && claimValue != null && !claimValue.isJsonNull()) {
+				json.add(claimKey, claimValue);
+				if (!userinfoOnlyClaims.contains(claimKey)) {
+					PerunCustomClaimDefinition limited = sizeLimitedClaims.get(claimKey);
+					if (limited != null) {
+						claimValue = limited.limitSize(claimValue, clientId);
+					}
+					claims.put(claimKey, claimValue);
+					jwtClaims.put(claimKey, gson2jsonsmart(claimValue));
+				}
+			}
+		}
+		return new ClaimsProjection(json, claims, jwtClaims);
+	}
+
+	/**
+	 * @return allowed claims as Gson object
+	 */
+	public JsonObject getJson() {
+		return json;
+	}
+
+	/**
+	 * @return allowed claims with Gson values
+	 */
+	public Map<String, JsonElement> getClaims() {
+		return claims;
+	}
+
+	/**
+	 * @return allowed claims with json-smart values, suitable for JWT claims
+	 */
+	public Map<String, Object> getJwtClaims() {
+		return jwtClaims;
+	}
+
+	/**
+	 * Converts claim values from com.google.gson.JsonElement to net.minidev.json.JSONObject or primitive value
+	 *
+	 * @param jsonElement Gson representation
+	 * @return json-smart representation
+	 */
+	private static Object gson2jsonsmart(JsonElement jsonElement) {
+		if (jsonElement.isJsonPrimitive()) {
+			JsonPrimitive p = jsonElement.getAsJsonPrimitive();
+			if (p.isString()) {
+				return p.getAsString();
+			} else if (p.isBoolean()) {
+				return p.getAsBoolean();
+			} else if (p.isNumber()) {
+				return p.getAsNumber();
+			} else {
+				log.warn("unknown JsonPrimitive {}", p);
+				return null;
+			}
+		} else if (jsonElement.isJsonObject()) {
+			try {
+				return JSONObjectUtils.parse(gson.toJson(jsonElement));
+			} catch (ParseException e) {
+				log.error("cannot convert Gson->smart-json.JSONObject", e);
+				return null;
+			}
+		} else if (jsonElement.isJsonArray()) {
+			JSONArray jsonArray = new JSONArray();
+			jsonElement.getAsJsonArray().forEach(je -> jsonArray.appendElement(gson2jsonsmart(je)));
+			return jsonArray;
+		} else {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package cz.muni.ics.oidc.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Supplier;
+import cz.muni.ics.oidc.server.claims.ClaimValueUnavailableException;
+import cz.muni.ics.oidc.server.claims.PerunCustomClaimDefinition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Value of a custom claim which is produced when it is needed for the first time and then remembered.
+ * With an executor, values of several claims can be produced in parallel, see {@link #start()}.
+ * When the claim has a timeout and the value is not produced in time, the onTimeout policy of the claim
+ * decides what to use instead; the production continues and its result is used by later requests.
+ * When the claim has maxAge, an older value is produced again by the producer, which is responsible
+ * for not using inputs older than maxAge.
+ * Values needed by other claims are obtained by {@link #getForDependent()}.
+ * A value which failed is not final and is produced again when it is needed next time.
+ */
+class LazyClaimValue implements Supplier<JsonNode> {
+
+	private final static Logger log = LoggerFactory.getLogger(LazyClaimValue.class);
+
+	private final PerunCustomClaimDefinition definition;
+	private final long perunUserId;
+	private final String clientId;
+	private final Supplier<JsonNode> producer;
+	private final Executor executor;
+	private final Runnable onStart;
+
+	private volatile CompletableFuture<JsonNode> future;
+	private volatile Runnable task;
+	private long deadline;
+	private volatile long producedAt;
+	private volatile boolean failed;
+
+	/**
+	 * @param onStart called when the production starts, e.g. for starting lookups needed by the claim source
+	 */
+	LazyClaimValue(PerunCustomClaimDefinition definition, long perunUserId, String clientId, Supplier<JsonNode> producer,
+				   Executor executor, Runnable onStart) {
+		this.definition = definition;
+		this.perunUserId = perunUserId;
+		this.clientId = clientId;
+		this.producer = producer;
+		this.executor = executor;
+		this.onStart = onStart;
+	}
+
+	/**
+	 * Starts producing the value on the executor, if it is not started yet.
+	 */
+	synchronized void start() {
+		if (future == null || isExpired() || (failed && future.isDone())) {
+			deadline = System.currentTimeMillis() + definition.getTimeout();
+			if (onStart != null) {
+				onStart.run();
+			}
+			CompletableFuture<JsonNode> f = new CompletableFuture<>();
+			AtomicBoolean claimed = new AtomicBoolean();
+			Runnable t = () -> {
+				if (claimed.compareAndSet(false, true)) {
+					f.complete(produce());
+				}
+			};
+			future = f;
+			task = t;
+			if (executor != null) {
+				executor.execute(t);
+			} else {
+				t.run();
+			}
+		}
+	}
+
+	/**
+	 * Gets the value for another claim which depends on it. When the production is still waiting
+	 * for a thread, it runs in the calling thread, because the waiting claim may occupy the last free one.
+	 *
+	 * @throws ClaimValueUnavailableException when the value failed or was not produced in time
+	 */
+	JsonNode getForDependent() {
+		start();
+		task.run();
+		JsonNode value = await();
+		CompletableFuture<JsonNode> f = future;
+		if (!f.isDone()) {
+			throw new ClaimValueUnavailableException("value of claim " + definition.getClaim() + " was not produced in time");
+		}
+		if (failed) {
+			throw new ClaimValueUnavailableException("value of claim " + definition.getClaim() + " failed");
+		}
+		return value;
+	}
+
+	/**
+	 * @return true if the value is already produced, did not fail and will not change
+	 */
+	boolean isFinal() {
+		CompletableFuture<JsonNode> f = future;
+		return f != null && f.isDone() && !failed && definition.getMaxAge() <= 0;
+	}
+
+	private boolean isExpired() {
+		return definition.getMaxAge() > 0 && future.isDone() && System.currentTimeMillis() - producedAt > definition.getMaxAge();
+	}
+
+	@Override
+	public JsonNode get() {
+		start();
+		return await();
+	}
+
+	private JsonNode await() {
+		try {
+			if (definition.getTimeout() <= 0) {
+				return future.get();
+			}
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining > 0) {
+				return future.get(remaining, TimeUnit.MILLISECONDS);
+			}
+			return future.isDone() ? future.get() : timeoutValue();
+		} catch (TimeoutException e) {
+			return timeoutValue();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return timeoutValue();
+		} catch (ExecutionException e) {
+			//produce() does not throw
+			return null;
+		}
+	}
+
+	private JsonNode produce() {
+		try {
+			JsonNode value = producer.get();
+			producedAt = System.currentTimeMillis();
+			failed = false;
+			definition.rememberValue(perunUserId, clientId, value);
+			return value;
+		} catch (ClaimValueUnavailableException ex) {
+			failed = true;
+			log.warn("cannot produce value of claim {} for user {}: {}", definition.getClaim(), perunUserId, ex.getMessage());
+			return null;
+		} catch (RuntimeException ex) {
+			failed = true;
+			log.error("cannot produce value of claim " + definition.getClaim(), ex);
+			return null;
+		}
+	}
+
+	private JsonNode timeoutValue() {
+		log.warn("value of claim {} for user {} not produced in {} ms, using {}", definition.getClaim(), perunUserId,
+				definition.getTimeout(), definition.getOnTimeout());
+		return definition.getTimeoutValue(perunUserId, clientId);
+	}
+}
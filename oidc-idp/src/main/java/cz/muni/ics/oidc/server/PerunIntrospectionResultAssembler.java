@@ -49,12 +49,9 @@ public class PerunIntrospectionResultAssembler extends DefaultIntrospectionResul
 		log.debug("adding iss to introspection response {}", map);
 		map.put("iss", configBean.getIssuer());
 		log.debug("adding user claims");
-		Set<String> authorizedClaims = translator.getClaimsForScopeSet(scopes);
-		for (Map.Entry<String, JsonElement> claim : userInfo.toJson().entrySet()) {
-			if (authorizedClaims.contains(claim.getKey()) && claim.getValue() != null && !claim.getValue().isJsonNull()) {
-				log.debug("adding claim {} with value {}", claim.getKey(), claim.getValue());
-				map.put(claim.getKey(), claim.getValue());
-			}
+		for (Map.Entry<String, JsonElement> claim : ClaimsProjection.of(userInfo, scopes, translator).getClaims().entrySet()) {
+			log.debug("adding claim {} with value {}", claim.getKey(), claim.getValue());
+			map.put(claim.getKey(), claim.getValue());
 		}
 	}
 
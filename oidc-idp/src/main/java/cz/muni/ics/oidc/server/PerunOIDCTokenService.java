@@ -1,13 +1,9 @@
 package cz.muni.ics.oidc.server;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonPrimitive;
-import com.nimbusds.jose.util.JSONObjectUtils;
 import com.nimbusds.jwt.JWTClaimsSet;
-import net.minidev.json.JSONArray;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.oauth2.model.OAuth2AccessTokenEntity;
+import org.mitre.openid.connect.model.UserInfo;
 import org.mitre.openid.connect.service.ScopeClaimTranslationService;
 import org.mitre.openid.connect.service.UserInfoService;
 import org.mitre.openid.connect.service.impl.DefaultOIDCTokenService;
@@ -16,7 +12,6 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.security.oauth2.provider.OAuth2Request;
 
-import java.text.ParseException;
 import java.util.Map;
 import java.util.Set;
 
@@ -40,51 +35,10 @@ public class PerunOIDCTokenService extends DefaultOIDCTokenService {
 		String clientId = request.getClientId();
 		log.trace("userId={},clientId={}", userId, clientId);
 		Set<String> scopes = accessToken.getScope();
-		Set<String> authorizedClaims = translator.getClaimsForScopeSet(scopes);
-		for (Map.Entry<String, JsonElement> claim : userInfoService.getByUsernameAndClientId(userId, clientId).toJson().entrySet()) {
-			String claimKey = claim.getKey();
-			JsonElement claimValue = claim.getValue();
-			if (authorizedClaims.contains(claimKey) && claimValue != null && !claimValue.isJsonNull()) {
-				log.trace("adding to ID token claim {} with value {}", claimKey, claimValue);
-				idClaims.claim(claimKey, gson2jsonsmart(claimValue));
-			}
-		}
-	}
-
-	private Gson gson = new Gson();
-
-	/**
-	 * Converts claim values from com.google.gson.JsonElement to net.minidev.json.JSONObject or primitive value
-	 *
-	 * @param jsonElement Gson representation
-	 * @return json-smart representation
-	 */
-	private Object gson2jsonsmart(JsonElement jsonElement) {
-		if (jsonElement.isJsonPrimitive()) {
-			JsonPrimitive p = jsonElement.getAsJsonPrimitive();
-			if (p.isString()) {
-				return p.getAsString();
-			} else if (p.isBoolean()) {
-				return p.getAsBoolean();
-			} else if (p.isNumber()) {
-				return p.getAsNumber();
-			} else {
-				log.warn("unknown JsonPrimitive {}", p);
-				return null;
-			}
-		} else if (jsonElement.isJsonObject()) {
-			try {
-				return JSONObjectUtils.parse(gson.toJson(jsonElement));
-			} catch (ParseException e) {
-				log.error("cannot convert Gson->smart-json.JSONObject", e);
-				return null;
-			}
-		} else if (jsonElement.isJsonArray()) {
-			JSONArray jsonArray = new JSONArray();
-			jsonElement.getAsJsonArray().forEach(je -> jsonArray.appendElement(gson2jsonsmart(je)));
-			return jsonArray;
-		} else {
-			return null;
+		UserInfo userInfo = userInfoService.getByUsernameAndClientId(userId, clientId);
+		for (Map.Entry<String, Object> claim : ClaimsProjection.of(userInfo, scopes, translator).getJwtClaims().entrySet()) {
+			log.trace("adding to ID token claim {} with value {}", claim.getKey(), claim.getValue());
+			idClaims.claim(claim.getKey(), claim.getValue());
 		}
 	}
 }
@@ -7,7 +7,9 @@ import org.mitre.openid.connect.service.ScopeClaimTranslationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -23,11 +25,19 @@ public class PerunScopeClaimTranslationService implements ScopeClaimTranslationS
 	private final static Logger log = LoggerFactory.getLogger(PerunScopeClaimTranslationService.class);
 
 	private SetMultimap<String, String> scopesToClaims = HashMultimap.create();
+	private Set<String> userinfoOnlyClaims = new HashSet<>();
+	private Map<String, PerunCustomClaimDefinition> sizeLimitedClaims = new HashMap<>();
 
 	public void setPerunUserInfoService(PerunUserInfoService perunUserInfoService) {
 		for(PerunCustomClaimDefinition pccd : perunUserInfoService.getCustomClaims()) {
 			log.info("adding custom claim \"{}\" in scope \"{}\" ",pccd.getClaim(),pccd.getScope());
 			scopesToClaims.put(pccd.getScope(),pccd.getClaim());
+			if (pccd.isUserinfoOnly()) {
+				userinfoOnlyClaims.add(pccd.getClaim());
+			}
+			if (pccd.hasSizeLimits()) {
+				sizeLimitedClaims.put(pccd.getClaim(), pccd);
+			}
 		}
 	}
 
@@ -62,6 +72,20 @@ public class PerunScopeClaimTranslationService implements ScopeClaimTranslationS
 		scopesToClaims.put("address", "address");
 	}
 
+	/**
+	 * @return claims which are released only from the UserInfo endpoint, not in tokens and introspection
+	 */
+	public Set<String> getUserinfoOnlyClaims() {
+		return userinfoOnlyClaims;
+	}
+
+	/**
+	 * @return definitions of claims whose values are limited in tokens and introspection, by claim name
+	 */
+	public Map<String, PerunCustomClaimDefinition> getSizeLimitedClaims() {
+		return sizeLimitedClaims;
+	}
+
 	/* (non-Javadoc)
 	 * @see org.mitre.openid.connect.service.ScopeClaimTranslationService#getClaimsForScope(java.lang.String)
 	 */
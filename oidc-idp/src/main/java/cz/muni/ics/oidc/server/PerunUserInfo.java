@@ -3,15 +3,23 @@ package cz.muni.ics.oidc.server;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import org.mitre.openid.connect.model.DefaultUserInfo;
+import org.mitre.openid.connect.service.ScopeClaimTranslationService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Implements UserInfo by inheriting from DefaultUserInfo and adding more claims.
@@ -22,49 +30,243 @@ public class PerunUserInfo extends DefaultUserInfo {
 
 	private final static Logger log = LoggerFactory.getLogger(PerunUserInfo.class);
 
-	private Map<String, JsonNode> customClaims = new LinkedHashMap<>();
+	private final Map<String, Supplier<JsonNode>> customClaims = new LinkedHashMap<>();
+	private final Set<String> pendingCustomClaims = new LinkedHashSet<>();
+	private volatile long loadedAt = System.currentTimeMillis();
+	private volatile int storedPendingCount = -1;
+	private volatile String clientId;
 
-	Map<String, JsonNode> getCustomClaims() {
-		return customClaims;
+	/**
+	 * Sets value of a custom claim.
+	 */
+	void setCustomClaim(String claim, JsonNode value) {
+		customClaims.put(claim, Suppliers.ofInstance(value));
 	}
 
-	private JsonObject obj;
+	/**
+	 * Sets custom claim whose value is produced on the first request for it and then remembered.
+	 */
+	void setLazyCustomClaim(String claim, LazyClaimValue value) {
+		customClaims.put(claim, value);
+		pendingCustomClaims.remove(claim);
+	}
+
+	/**
+	 * Gets value of a custom claim, producing it if it was not needed yet.
+	 *
+	 * @param claim claim name
+	 * @return claim value or null
+	 */
+	public JsonNode getCustomClaim(String claim) {
+		Supplier<JsonNode> value = customClaims.get(claim);
+		return value == null ? null : value.get();
+	}
+
+	/**
+	 * Gets non-null values of custom claims which are already produced and will not change.
+	 * Claims which were not needed yet are not produced.
+	 */
+	Map<String, JsonNode> getProducedCustomClaims() {
+		Map<String, JsonNode> values = new LinkedHashMap<>();
+		for (Map.Entry<String, Supplier<JsonNode>> entry : customClaims.entrySet()) {
+			Supplier<JsonNode> supplier = entry.getValue();
+			if (!(supplier instanceof LazyClaimValue) || ((LazyClaimValue) supplier).isFinal()) {
+				JsonNode value = supplier.get();
+				if (value != null) {
+					values.put(entry.getKey(), value);
+				}
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Gets names of custom claims whose values are not produced yet or may still change.
+	 */
+	Set<String> getPendingCustomClaims() {
+		Set<String> pending = new LinkedHashSet<>(pendingCustomClaims);
+		for (Map.Entry<String, Supplier<JsonNode>> entry : customClaims.entrySet()) {
+			Supplier<JsonNode> supplier = entry.getValue();
+			if (supplier instanceof LazyClaimValue && !((LazyClaimValue) supplier).isFinal()) {
+				pending.add(entry.getKey());
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * Marks custom claims whose values were not produced when the user info was serialized,
+	 * they have no value until {@link #setLazyCustomClaim(String, LazyClaimValue)} is called for them.
+	 */
+	void setPendingCustomClaims(Collection<String> claims) {
+		pendingCustomClaims.addAll(claims);
+	}
+
+	String getClientId() {
+		return clientId;
+	}
+
+	/**
+	 * Sets the client the user info was loaded for, size limits of claims in tokens may differ per client.
+	 */
+	void setClientId(String clientId) {
+		this.clientId = clientId;
+	}
+
+	long getLoadedAt() {
+		return loadedAt;
+	}
+
+	/**
+	 * Sets when the user info was loaded from Perun or from the database, used for limiting its age in caches.
+	 */
+	void setLoadedAt(long loadedAt) {
+		this.loadedAt = loadedAt;
+	}
+
+	/**
+	 * Remembers that the user info was stored with its current claim values.
+	 */
+	void markStored() {
+		storedPendingCount = getPendingCustomClaims().size();
+	}
+
+	void setStoredPendingCount(int storedPendingCount) {
+		this.storedPendingCount = storedPendingCount;
+	}
+
+	int getStoredPendingCount() {
+		return storedPendingCount;
+	}
+
+	/**
+	 * @return true if the user info was never stored or more claim values were produced since
+	 */
+	boolean isChangedSinceStored() {
+		return storedPendingCount != getPendingCustomClaims().size();
+	}
+
+	private volatile JsonObject obj;
+
+	/**
+	 * Maximum number of remembered projections, clients usually use only a few combinations of scopes.
+	 */
+	private static final int MAX_PROJECTIONS = 16;
+
+	private final Map<Set<String>, ClaimsProjection> projections = new ConcurrentHashMap<>();
 
 	@Override
 	public JsonObject toJson() {
 		if(obj==null) {
 			//delegate standard claims to DefaultUserInfo
-			obj = super.toJson();
+			JsonObject o = super.toJson();
 			//add custom claims
-			for (Map.Entry<String, JsonNode> entry : customClaims.entrySet()) {
-				String key = entry.getKey();
-				JsonNode value = entry.getValue();
-				if (value == null || value.isNull()) {
-					obj.addProperty(key, (String) null);
-					log.debug("adding null claim {}=null", key);
-				} else if (value.isTextual()) {
-					obj.addProperty(key, value.asText());
-					log.debug("adding string claim {}={}", key, value.asText());
-				} else if (value.isNumber()) {
-					obj.addProperty(key, value.asLong());
-					log.debug("adding long claim {}={}", key, value.asText());
-				} else if (value.isContainerNode()) {
-					try {
-						//convert from Jackson to GSon
-						String rawJson = new ObjectMapper().writeValueAsString(value);
-						obj.add(key, new JsonParser().parse(rawJson));
-						log.debug("adding JSON claim {}={}", key, rawJson);
-					} catch (JsonProcessingException | JsonSyntaxException e) {
-						log.error("cannot convert Jackson/Gson value " + value, e);
-					}
-				} else {
-					log.warn("claim {} is of unknown type {}, skipping", key, value.getNodeType().toString());
-				}
+			startProducing(customClaims.keySet());
+			for (String key : customClaims.keySet()) {
+				addCustomClaim(o, key);
+			}
+			if (allProduced()) {
+				obj = o;
 			}
+			return o;
 		} else {
 			log.debug("already rendered to JSON");
 		}
 		return obj;
 	}
 
+	/**
+	 * Renders standard claims and only the listed custom claims, so that values of other custom claims
+	 * do not need to be produced.
+	 *
+	 * @param claims names of needed claims
+	 * @return JSON with standard claims and the needed custom claims
+	 */
+	public JsonObject toJson(Set<String> claims) {
+		if (obj != null) {
+			return obj;
+		}
+		JsonObject o = super.toJson();
+		startProducing(claims);
+		for (String key : customClaims.keySet()) {
+			if (claims.contains(key)) {
+				addCustomClaim(o, key);
+			}
+		}
+		return o;
+	}
+
+	/**
+	 * Gets claims allowed by the given scopes, prepared for the ID token, introspection and consent page.
+	 * The projection is remembered for the set of scopes once all its claim values are final.
+	 *
+	 * @param scopes granted scopes
+	 * @param translator translation of scopes to claims
+	 * @return claims allowed by the scopes
+	 */
+	public ClaimsProjection getProjection(Set<String> scopes, ScopeClaimTranslationService translator) {
+		ClaimsProjection projection = projections.get(scopes);
+		if (projection != null) {
+			log.trace("using rendered claims for scopes {}", scopes);
+			return projection;
+		}
+		Set<String> authorizedClaims = translator.getClaimsForScopeSet(scopes);
+		projection = ClaimsProjection.create(toJson(authorizedClaims), authorizedClaims, translator, clientId);
+		if (allProduced() && projections.size() < MAX_PROJECTIONS) {
+			projections.put(ImmutableSet.copyOf(scopes), projection);
+		}
+		return projection;
+	}
+
+	/**
+	 * Starts producing values of the listed claims in parallel.
+	 */
+	private void startProducing(Set<String> claims) {
+		for (String key : claims) {
+			Supplier<JsonNode> value = customClaims.get(key);
+			if (value instanceof LazyClaimValue) {
+				((LazyClaimValue) value).start();
+			}
+		}
+	}
+
+	private boolean allProduced() {
+		if (!pendingCustomClaims.isEmpty()) {
+			return false;
+		}
+		for (Supplier<JsonNode> value : customClaims.values()) {
+			if (value instanceof LazyClaimValue && !((LazyClaimValue) value).isFinal()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void addCustomClaim(JsonObject obj, String key) {
+		JsonNode value = getCustomClaim(key);
+		if (value == null) {
+			log.debug("claim {} is null", key);
+		} else if (value.isNull()) {
+			obj.addProperty(key, (String) null);
+			log.debug("adding null claim {}=null", key);
+		} else if (value.isTextual()) {
+			obj.addProperty(key, value.asText());
+			log.debug("adding string claim {}={}", key, value.asText());
+		} else if (value.isNumber()) {
+			obj.addProperty(key, value.asLong());
+			log.debug("adding long claim {}={}", key, value.asText());
+		} else if (value.isContainerNode()) {
+			try {
+				//convert from Jackson to GSon
+				String rawJson = new ObjectMapper().writeValueAsString(value);
+				obj.add(key, new JsonParser().parse(rawJson));
+				log.debug("adding JSON claim {}={}", key, rawJson);
+			} catch (JsonProcessingException | JsonSyntaxException e) {
+				log.error("cannot convert Jackson/Gson value " + value, e);
+			}
+		} else {
+			log.warn("claim {} is of unknown type {}, skipping", key, value.getNodeType().toString());
+		}
+	}
+
 }
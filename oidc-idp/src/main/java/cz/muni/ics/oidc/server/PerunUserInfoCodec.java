@@ -0,0 +1,249 @@
+package cz.muni.ics.oidc.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.mitre.openid.connect.model.Address;
+import org.mitre.openid.connect.model.DefaultAddress;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Converts PerunUserInfo to and from a self-contained JSON representation,
+ * so that it can be stored outside of the JVM heap and restored later.
+ */
+public class PerunUserInfoCodec {
+
+	/**
+	 * Version of the serialized format, must be incremented on incompatible changes.
+	 */
+	static final int FORMAT_VERSION = 3;
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private static final String ID = "id";
+	private static final String SUB = "sub";
+	private static final String PREFERRED_USERNAME = "preferred_username";
+	private static final String GIVEN_NAME = "given_name";
+	private static final String FAMILY_NAME = "family_name";
+	private static final String MIDDLE_NAME = "middle_name";
+	private static final String NAME = "name";
+	private static final String NICKNAME = "nickname";
+	private static final String PROFILE = "profile";
+	private static final String PICTURE = "picture";
+	private static final String WEBSITE = "website";
+	private static final String EMAIL = "email";
+	private static final String EMAIL_VERIFIED = "email_verified";
+	private static final String GENDER = "gender";
+	private static final String ZONEINFO = "zoneinfo";
+	private static final String LOCALE = "locale";
+	private static final String PHONE_NUMBER = "phone_number";
+	private static final String PHONE_NUMBER_VERIFIED = "phone_number_verified";
+	private static final String UPDATED_AT = "updated_at";
+	private static final String BIRTHDATE = "birthdate";
+	private static final String ADDRESS = "address";
+	private static final String FORMATTED = "formatted";
+	private static final String STREET_ADDRESS = "street_address";
+	private static final String LOCALITY = "locality";
+	private static final String REGION = "region";
+	private static final String POSTAL_CODE = "postal_code";
+	private static final String COUNTRY = "country";
+	private static final String CUSTOM = "custom";
+	private static final String PENDING = "pending";
+
+	private PerunUserInfoCodec() {
+	}
+
+	/**
+	 * Converts user info into JSON containing standard claims and already produced custom claims.
+	 * Custom claims which were not needed yet are not produced, only their names are kept,
+	 * see {@link PerunUserInfo#getPendingCustomClaims()}.
+	 *
+	 * @param ui user info
+	 * @return JSON representation
+	 */
+	public static ObjectNode toJsonNode(PerunUserInfo ui) {
+		ObjectNode o = JsonNodeFactory.instance.objectNode();
+		if (ui.getId() != null) {
+			o.put(ID, ui.getId());
+		}
+		putIfNotNull(o, SUB, ui.getSub());
+		putIfNotNull(o, PREFERRED_USERNAME, ui.getPreferredUsername());
+		putIfNotNull(o, GIVEN_NAME, ui.getGivenName());
+		putIfNotNull(o, FAMILY_NAME, ui.getFamilyName());
+		putIfNotNull(o, MIDDLE_NAME, ui.getMiddleName());
+		putIfNotNull(o, NAME, ui.getName());
+		putIfNotNull(o, NICKNAME, ui.getNickname());
+		putIfNotNull(o, PROFILE, ui.getProfile());
+		putIfNotNull(o, PICTURE, ui.getPicture());
+		putIfNotNull(o, WEBSITE, ui.getWebsite());
+		putIfNotNull(o, EMAIL, ui.getEmail());
+		putIfNotNull(o, EMAIL_VERIFIED, ui.getEmailVerified());
+		putIfNotNull(o, GENDER, ui.getGender());
+		putIfNotNull(o, ZONEINFO, ui.getZoneinfo());
+		putIfNotNull(o, LOCALE, ui.getLocale());
+		putIfNotNull(o, PHONE_NUMBER, ui.getPhoneNumber());
+		putIfNotNull(o, PHONE_NUMBER_VERIFIED, ui.getPhoneNumberVerified());
+		putIfNotNull(o, UPDATED_AT, ui.getUpdatedTime());
+		putIfNotNull(o, BIRTHDATE, ui.getBirthdate());
+		Address address = ui.getAddress();
+		if (address != null) {
+			ObjectNode a = o.putObject(ADDRESS);
+			putIfNotNull(a, FORMATTED, address.getFormatted());
+			putIfNotNull(a, STREET_ADDRESS, address.getStreetAddress());
+			putIfNotNull(a, LOCALITY, address.getLocality());
+			putIfNotNull(a, REGION, address.getRegion());
+			putIfNotNull(a, POSTAL_CODE, address.getPostalCode());
+			putIfNotNull(a, COUNTRY, address.getCountry());
+		}
+		ObjectNode custom = o.putObject(CUSTOM);
+		for (Map.Entry<String, JsonNode> entry : ui.getProducedCustomClaims().entrySet()) {
+			custom.set(entry.getKey(), entry.getValue());
+		}
+		Set<String> pending = ui.getPendingCustomClaims();
+		if (!pending.isEmpty()) {
+			ArrayNode names = o.putArray(PENDING);
+			pending.forEach(names::add);
+		}
+		return o;
+	}
+
+	/**
+	 * Restores user info from JSON produced by {@link #toJsonNode(PerunUserInfo)}.
+	 * Custom claims which were not produced have no value until they are set as lazy claims again.
+	 *
+	 * @param o JSON representation
+	 * @return user info
+	 */
+	public static PerunUserInfo fromJsonNode(JsonNode o) {
+		PerunUserInfo ui = new PerunUserInfo();
+		if (o.hasNonNull(ID)) {
+			ui.setId(o.get(ID).asLong());
+		}
+		ui.setSub(text(o, SUB));
+		ui.setPreferredUsername(text(o, PREFERRED_USERNAME));
+		ui.setGivenName(text(o, GIVEN_NAME));
+		ui.setFamilyName(text(o, FAMILY_NAME));
+		ui.setMiddleName(text(o, MIDDLE_NAME));
+		ui.setName(text(o, NAME));
+		ui.setNickname(text(o, NICKNAME));
+		ui.setProfile(text(o, PROFILE));
+		ui.setPicture(text(o, PICTURE));
+		ui.setWebsite(text(o, WEBSITE));
+		ui.setEmail(text(o, EMAIL));
+		ui.setEmailVerified(bool(o, EMAIL_VERIFIED));
+		ui.setGender(text(o, GENDER));
+		ui.setZoneinfo(text(o, ZONEINFO));
+		ui.setLocale(text(o, LOCALE));
+		ui.setPhoneNumber(text(o, PHONE_NUMBER));
+		ui.setPhoneNumberVerified(bool(o, PHONE_NUMBER_VERIFIED));
+		ui.setUpdatedTime(text(o, UPDATED_AT));
+		ui.setBirthdate(text(o, BIRTHDATE));
+		JsonNode a = o.get(ADDRESS);
+		if (a != null && a.isObject()) {
+			Address address = new DefaultAddress();
+			address.setFormatted(text(a, FORMATTED));
+			address.setStreetAddress(text(a, STREET_ADDRESS));
+			address.setLocality(text(a, LOCALITY));
+			address.setRegion(text(a, REGION));
+			address.setPostalCode(text(a, POSTAL_CODE));
+			address.setCountry(text(a, COUNTRY));
+			ui.setAddress(address);
+		}
+		JsonNode custom = o.path(CUSTOM);
+		for (Iterator<Map.Entry<String, JsonNode>> it = custom.fields(); it.hasNext(); ) {
+			Map.Entry<String, JsonNode> entry = it.next();
+			ui.setCustomClaim(entry.getKey(), entry.getValue());
+		}
+		List<String> pending = new ArrayList<>();
+		for (JsonNode name : o.path(PENDING)) {
+			pending.add(name.asText());
+		}
+		ui.setPendingCustomClaims(pending);
+		return ui;
+	}
+
+	/**
+	 * Serializes user info to a JSON string.
+	 */
+	public static String toJsonString(PerunUserInfo ui) throws IOException {
+		return mapper.writeValueAsString(toJsonNode(ui));
+	}
+
+	/**
+	 * Deserializes user info from a JSON string.
+	 */
+	public static PerunUserInfo fromJsonString(String json) throws IOException {
+		return fromJsonNode(mapper.readTree(json));
+	}
+
+	/**
+	 * Serializes user info to compressed JSON bytes. Used for compact in-memory caching.
+	 *
+	 * @param ui user info
+	 * @return deflated UTF-8 JSON
+	 */
+	public static byte[] toBytes(PerunUserInfo ui) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(512);
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		try (OutputStream out = new DeflaterOutputStream(bos, deflater)) {
+			mapper.writeValue(out, toJsonNode(ui));
+		} catch (IOException e) {
+			throw new UncheckedIOException("cannot serialize UserInfo", e);
+		} finally {
+			deflater.end();
+		}
+		return bos.toByteArray();
+	}
+
+	/**
+	 * Deserializes user info from bytes produced by {@link #toBytes(PerunUserInfo)}.
+	 *
+	 * @param bytes deflated UTF-8 JSON
+	 * @return user info
+	 */
+	public static PerunUserInfo fromBytes(byte[] bytes) {
+		try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+			return fromJsonNode(mapper.readTree(in));
+		} catch (IOException e) {
+			throw new UncheckedIOException("cannot deserialize UserInfo", e);
+		}
+	}
+
+	private static void putIfNotNull(ObjectNode o, String key, String value) {
+		if (value != null) {
+			o.put(key, value);
+		}
+	}
+
+	private static void putIfNotNull(ObjectNode o, String key, Boolean value) {
+		if (value != null) {
+			o.put(key, value);
+		}
+	}
+
+	private static Boolean bool(JsonNode o, String key) {
+		JsonNode n = o.get(key);
+		return (n == null || n.isNull()) ? null : n.asBoolean();
+	}
+
+	private static String text(JsonNode o, String key) {
+		JsonNode n = o.get(key);
+		return (n == null || n.isNull()) ? null : n.asText();
+	}
+}
@@ -0,0 +1,371 @@
+package cz.muni.ics.oidc.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Second level cache of UserInfo shared by all nodes of the cluster.
+ * Stores serialized claims in the table user_info of the main database, see db/psql/user_info_cache.sql
+ * for the needed columns. Entries are valid until their expiration time and only if they were stored
+ * with the same version of claims configuration as is the current one. Claims which were not produced
+ * before storing are produced again after loading.
+ * UserInfo is stored in the background by {@link #store(long, String, PerunUserInfo)}: entries are written
+ * every flushIntervalSeconds, at most maxPending of them wait for writing. Expired entries are deleted
+ * every purgeIntervalSeconds.
+ */
+public class PerunUserInfoDatabaseCache {
+
+	private final static Logger log = LoggerFactory.getLogger(PerunUserInfoDatabaseCache.class);
+
+	/**
+	 * Value of client_id column for UserInfo not bound to any client.
+	 */
+	private static final String NO_CLIENT = "";
+
+	private DataSource dataSource;
+	private boolean enabled;
+	private long ttlSeconds = 3600;
+	private String tableName = "user_info";
+	private long version;
+	private long flushIntervalSeconds = 5;
+	private long purgeIntervalSeconds = 3600;
+	private int maxPending = 10000;
+
+	private final ConcurrentMap<StoredKey, PerunUserInfo> pending = new ConcurrentHashMap<>();
+	private final LongAdder dropped = new LongAdder();
+	private ScheduledExecutorService scheduler;
+
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void setTtlSeconds(long ttlSeconds) {
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	public void setTableName(String tableName) {
+		this.tableName = tableName;
+	}
+
+	public void setFlushIntervalSeconds(long flushIntervalSeconds) {
+		this.flushIntervalSeconds = flushIntervalSeconds;
+	}
+
+	public void setPurgeIntervalSeconds(long purgeIntervalSeconds) {
+		this.purgeIntervalSeconds = purgeIntervalSeconds;
+	}
+
+	public void setMaxPending(int maxPending) {
+		this.maxPending = maxPending;
+	}
+
+	@PostConstruct
+	public void postInit() {
+		if (!enabled) {
+			return;
+		}
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "userinfo-database-cache");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+		scheduler.scheduleWithFixedDelay(this::purgeExpired, purgeIntervalSeconds, purgeIntervalSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			scheduler.awaitTermination(flushIntervalSeconds, TimeUnit.SECONDS);
+		}
+		flush();
+	}
+
+	/**
+	 * Sets version of the claims configuration. Entries stored with other version are ignored.
+	 *
+	 * @param version version of the claims configuration
+	 */
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * Gets valid UserInfo stored for the given user and client.
+	 *
+	 * @param userId Perun user id
+	 * @param clientId client_id or null
+	 * @return stored UserInfo or null when not found, expired or stored with other configuration
+	 */
+	public PerunUserInfo get(long userId, String clientId) {
+		if (!enabled) {
+			return null;
+		}
+		String query = "SELECT src, version, expires_at FROM " + tableName + " WHERE perun_user_id = ? AND client_id = ?";
+		try (Connection c = dataSource.getConnection();
+			 PreparedStatement ps = c.prepareStatement(query)) {
+			ps.setLong(1, userId);
+			ps.setString(2, clientId == null ? NO_CLIENT : clientId);
+			try (ResultSet rs = ps.executeQuery()) {
+				if (!rs.next()) {
+					log.trace("no stored UserInfo for ({},{})", userId, clientId);
+					return null;
+				}
+				String src = rs.getString(1);
+				long storedVersion = rs.getLong(2);
+				long expiresAt = rs.getLong(3);
+				if (storedVersion != version) {
+					log.debug("stored UserInfo for ({},{}) has version {}, current is {}", userId, clientId, storedVersion, version);
+					return null;
+				}
+				if (expiresAt < System.currentTimeMillis() / 1000L) {
+					log.trace("stored UserInfo for ({},{}) expired", userId, clientId);
+					return null;
+				}
+				PerunUserInfo ui = PerunUserInfoCodec.fromJsonString(src);
+				log.trace("loaded UserInfo for ({},{}) from database", userId, clientId);
+				return ui;
+			}
+		} catch (SQLException | IOException ex) {
+			log.warn("cannot read UserInfo for ({},{}) from database: {}", userId, clientId, ex.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Stores UserInfo for the given user and client in the background. It is serialized when it is written,
+	 * so claims produced in the meantime are stored too.
+	 *
+	 * @param userId Perun user id
+	 * @param clientId client_id or null
+	 * @param ui UserInfo to store
+	 */
+	public void store(long userId, String clientId, PerunUserInfo ui) {
+		if (!enabled) {
+			return;
+		}
+		StoredKey key = new StoredKey(userId, clientId);
+		if (pending.size() >= maxPending && !pending.containsKey(key)) {
+			dropped.increment();
+			log.debug("too many UserInfo waiting for database, not storing ({},{})", userId, clientId);
+			return;
+		}
+		pending.put(key, ui);
+	}
+
+	/**
+	 * Writes UserInfo waiting for storing.
+	 */
+	synchronized void flush() {
+		for (StoredKey key : pending.keySet()) {
+			PerunUserInfo ui = pending.remove(key);
+			if (ui != null) {
+				try {
+					put(key.userId, key.clientId, ui);
+					ui.markStored();
+				} catch (RuntimeException ex) {
+					//a flush must not end with an exception, it would stop the scheduled flushes
+					log.warn("cannot store UserInfo for ({},{}): {}", key.userId, key.clientId, ex.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Deletes expired entries.
+	 */
+	void purgeExpired() {
+		try (Connection c = dataSource.getConnection();
+			 PreparedStatement ps = c.prepareStatement("DELETE FROM " + tableName +
+					 " WHERE perun_user_id IS NOT NULL AND expires_at < ?")) {
+			ps.setLong(1, System.currentTimeMillis() / 1000L);
+			int deleted = ps.executeUpdate();
+			log.debug("deleted {} expired UserInfo", deleted);
+		} catch (SQLException | RuntimeException ex) {
+			log.warn("cannot delete expired UserInfo from database: {}", ex.getMessage());
+		}
+	}
+
+	/**
+	 * @return number of UserInfo not stored because too many were waiting
+	 */
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	/**
+	 * Stores UserInfo for the given user and client, replacing the previous entry.
+	 *
+	 * @param userId Perun user id
+	 * @param clientId client_id or null
+	 * @param ui UserInfo to store
+	 */
+	public void put(long userId, String clientId, PerunUserInfo ui) {
+		if (!enabled) {
+			return;
+		}
+		String client = clientId == null ? NO_CLIENT : clientId;
+		long expiresAt = System.currentTimeMillis() / 1000L + ttlSeconds;
+		String update = "UPDATE " + tableName + " SET sub = ?, src = ?, version = ?, expires_at = ?" +
+				" WHERE perun_user_id = ? AND client_id = ?";
+		String insert = "INSERT INTO " + tableName + "(sub, src, version, expires_at, perun_user_id, client_id)" +
+				" VALUES (?, ?, ?, ?, ?, ?)";
+		try (Connection c = dataSource.getConnection()) {
+			String src = PerunUserInfoCodec.toJsonString(ui);
+			int updated;
+			try (PreparedStatement ps = c.prepareStatement(update)) {
+				setValues(ps, ui.getSub(), src, expiresAt, userId, client);
+				updated = ps.executeUpdate();
+			}
+			if (updated == 0) {
+				try (PreparedStatement ps = c.prepareStatement(insert)) {
+					setValues(ps, ui.getSub(), src, expiresAt, userId, client);
+					ps.executeUpdate();
+				} catch (SQLException ex) {
+					//other node inserted the same entry in the meantime, its value is as good as ours
+					log.debug("cannot insert UserInfo for ({},{}): {}", userId, clientId, ex.getMessage());
+				}
+			}
+			log.trace("stored UserInfo for ({},{}) into database", userId, clientId);
+		} catch (SQLException | IOException ex) {
+			log.warn("cannot store UserInfo for ({},{}) into database: {}", userId, clientId, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes all entries of the given user.
+	 *
+	 * @param userId Perun user id
+	 */
+	public synchronized void delete(long userId) {
+		if (!enabled) {
+			return;
+		}
+		pending.keySet().removeIf(key -> key.userId == userId);
+		try (Connection c = dataSource.getConnection();
+			 PreparedStatement ps = c.prepareStatement("DELETE FROM " + tableName + " WHERE perun_user_id = ?")) {
+			ps.setLong(1, userId);
+			int deleted = ps.executeUpdate();
+			log.trace("deleted {} stored UserInfo of user {}", deleted, userId);
+		} catch (SQLException ex) {
+			log.warn("cannot delete UserInfo of user {} from database: {}", userId, ex.getMessage());
+		}
+	}
+
+	/**
+	 * Deletes all entries.
+	 */
+	public synchronized void deleteAll() {
+		if (!enabled) {
+			return;
+		}
+		pending.clear();
+		try (Connection c = dataSource.getConnection();
+			 PreparedStatement ps = c.prepareStatement("DELETE FROM " + tableName + " WHERE perun_user_id IS NOT NULL")) {
+			int deleted = ps.executeUpdate();
+			log.info("deleted {} stored UserInfo", deleted);
+		} catch (SQLException ex) {
+			log.warn("cannot delete UserInfo from database: {}", ex.getMessage());
+		}
+	}
+
+	/**
+	 * Finds keys of the most recently stored entries, which belong to recently active users.
+	 *
+	 * @param limit maximum number of returned keys
+	 * @return keys of valid entries ordered from the most recent
+	 */
+	public List<StoredKey> findRecent(int limit) {
+		List<StoredKey> keys = new ArrayList<>();
+		if (!enabled) {
+			return keys;
+		}
+		String query = "SELECT perun_user_id, client_id FROM " + tableName + " WHERE version = ? AND expires_at > ?" +
+				" ORDER BY expires_at DESC";
+		try (Connection c = dataSource.getConnection();
+			 PreparedStatement ps = c.prepareStatement(query)) {
+			ps.setMaxRows(limit);
+			ps.setLong(1, version);
+			ps.setLong(2, System.currentTimeMillis() / 1000L);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					String client = rs.getString(2);
+					keys.add(new StoredKey(rs.getLong(1), NO_CLIENT.equals(client) ? null : client));
+				}
+			}
+		} catch (SQLException ex) {
+			log.warn("cannot read recent UserInfo keys from database: {}", ex.getMessage());
+		}
+		return keys;
+	}
+
+	private void setValues(PreparedStatement ps, String sub, String src, long expiresAt, long userId, String client) throws SQLException {
+		ps.setString(1, sub);
+		ps.setString(2, src);
+		ps.setLong(3, version);
+		ps.setLong(4, expiresAt);
+		ps.setLong(5, userId);
+		ps.setString(6, client);
+	}
+
+	/**
+	 * Identifies stored UserInfo.
+	 */
+	public static class StoredKey {
+		private final long userId;
+		private final String clientId;
+
+		StoredKey(long userId, String clientId) {
+			this.userId = userId;
+			this.clientId = clientId;
+		}
+
+		public long getUserId() {
+			return userId;
+		}
+
+		public String getClientId() {
+			return clientId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			StoredKey storedKey = (StoredKey) o;
+			return userId == storedKey.userId && Objects.equals(clientId, storedKey.clientId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(userId, clientId);
+		}
+	}
+}
@@ -1,23 +1,35 @@
 package cz.muni.ics.oidc.server;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import cz.muni.ics.oidc.models.RichUser;
+import cz.muni.ics.oidc.server.caches.InvalidatableCache;
+import cz.muni.ics.oidc.server.claims.CachingClaimSource;
 import cz.muni.ics.oidc.server.claims.ClaimModifier;
+import cz.muni.ics.oidc.server.claims.ClaimModifierChain;
 import cz.muni.ics.oidc.server.claims.ClaimModifierInitContext;
 import cz.muni.ics.oidc.server.claims.ClaimSource;
 import cz.muni.ics.oidc.server.claims.ClaimSourceInitContext;
 import cz.muni.ics.oidc.server.claims.ClaimSourceProduceContext;
+import cz.muni.ics.oidc.server.claims.ClaimSourceRequirements;
+import cz.muni.ics.oidc.server.claims.ClaimValueUnavailableException;
 import cz.muni.ics.oidc.server.claims.PerunCustomClaimDefinition;
+import cz.muni.ics.oidc.server.claims.ValueMemo;
 import cz.muni.ics.oidc.server.claims.sources.PerunAttributeClaimSource;
 import cz.muni.ics.oidc.server.connectors.PerunConnector;
+import cz.muni.ics.oidc.server.metrics.ClaimMetrics;
+import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.oauth2.service.ClientDetailsEntityService;
+import org.mitre.openid.connect.config.ConfigurationPropertiesBean;
 import org.mitre.openid.connect.model.Address;
 import org.mitre.openid.connect.model.DefaultAddress;
 import org.mitre.openid.connect.model.UserInfo;
@@ -27,21 +39,35 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 /**
  * Service called from UserInfoEndpoint and other places to get UserInfo.
  *
  * @author Martin Kuba makub@ics.muni.cz
  */
-public class PerunUserInfoService implements UserInfoService {
+public class PerunUserInfoService implements UserInfoService, InvalidatableCache {
 
 	private static final Logger log = LoggerFactory.getLogger(PerunUserInfoService.class);
 
@@ -52,12 +78,13 @@ public class PerunUserInfoService implements UserInfoService {
 
 	private static final String SOURCE_CLASS = ".sourceClass";
 	private static final String MODIFIER_CLASS = ".modifierClass";
+	private static final String MODIFIERS = ".modifiers";
 
 	private PerunConnector perunConnector;
 	private Properties properties;
 
 	private String subAttribute;
-	private ClaimModifier subModifier;
+	private ClaimModifierChain subModifier;
 	private String preferredUsernameAttribute;
 	private String givenNameAttribute;
 	private String familyNameAttribute;
@@ -70,6 +97,19 @@ public class PerunUserInfoService implements UserInfoService {
 	private String localeAttribute;
 	private List<String> customClaimNames;
 	private List<PerunCustomClaimDefinition> customClaims = new ArrayList<>();
+	private PerunUserInfoDatabaseCache databaseCache;
+	private long cacheMaxSize = 100;
+	private long cacheExpireAfterAccessSeconds = 60;
+	private long cacheExpireAfterWriteSeconds = 600;
+	private boolean cacheCompact;
+	private long cacheMaxBytes = 64L * 1024 * 1024;
+	private int claimsThreads = 8;
+	private int claimsQueueSize = 1000;
+	private ValueMemo valueMemo = new ValueMemo();
+	private ClaimMetrics claimMetrics;
+	private JWTSigningAndValidationService jwtService;
+	private ConfigurationPropertiesBean configBean;
+	private ExecutorService claimsExecutor;
 
 	public void setProperties(Properties properties) {
 		this.properties = properties;
@@ -127,10 +167,94 @@ public class PerunUserInfoService implements UserInfoService {
 		this.customClaimNames = customClaimNames;
 	}
 
+	public void setDatabaseCache(PerunUserInfoDatabaseCache databaseCache) {
+		this.databaseCache = databaseCache;
+	}
+
+	public void setCacheMaxSize(long cacheMaxSize) {
+		this.cacheMaxSize = cacheMaxSize;
+	}
+
+	public void setCacheExpireAfterAccessSeconds(long cacheExpireAfterAccessSeconds) {
+		this.cacheExpireAfterAccessSeconds = cacheExpireAfterAccessSeconds;
+	}
+
+	/**
+	 * Sets maximum age of cached UserInfo, so that frequently used entries are refreshed too.
+	 */
+	public void setCacheExpireAfterWriteSeconds(long cacheExpireAfterWriteSeconds) {
+		this.cacheExpireAfterWriteSeconds = cacheExpireAfterWriteSeconds;
+	}
+
+	/**
+	 * Adds a compact tier to the in-memory cache. UserInfo evicted for size from the cache of cacheMaxSize entries
+	 * is kept serialized in compressed byte arrays, limited by total size in bytes, and decoded when it is needed again.
+	 * Only already produced custom claims are serialized, the others are produced after decoding when needed.
+	 */
+	public void setCacheCompact(boolean cacheCompact) {
+		this.cacheCompact = cacheCompact;
+	}
+
+	public void setCacheMaxBytes(long cacheMaxBytes) {
+		this.cacheMaxBytes = cacheMaxBytes;
+	}
+
+	/**
+	 * Sets number of threads producing values of custom claims in parallel, 0 means producing them
+	 * in the requesting thread one by one.
+	 */
+	public void setClaimsThreads(int claimsThreads) {
+		this.claimsThreads = claimsThreads;
+	}
+
+	/**
+	 * Sets number of claim values waiting for a free thread. When the queue is full,
+	 * the value is produced in the requesting thread.
+	 */
+	public void setClaimsQueueSize(int claimsQueueSize) {
+		this.claimsQueueSize = claimsQueueSize;
+	}
+
+	/**
+	 * Sets remembered group names in AARC format passed to claim sources and modifiers.
+	 */
+	public void setValueMemo(ValueMemo valueMemo) {
+		this.valueMemo = valueMemo;
+	}
+
+	/**
+	 * Sets where timing and sizes of loads and claims are recorded, null means they are not recorded.
+	 */
+	public void setClaimMetrics(ClaimMetrics claimMetrics) {
+		this.claimMetrics = claimMetrics;
+	}
+
+	/**
+	 * Sets service for claim sources which issue signed JWTs, e.g. GA4GH visas.
+	 */
+	public void setJwtService(JWTSigningAndValidationService jwtService) {
+		this.jwtService = jwtService;
+	}
+
+	public void setConfigBean(ConfigurationPropertiesBean configBean) {
+		this.configBean = configBean;
+	}
+
 	@PostConstruct
 	public void postInit() {
+		initCache();
+		if (claimsThreads > 0) {
+			AtomicInteger threadNumber = new AtomicInteger();
+			claimsExecutor = new ThreadPoolExecutor(claimsThreads, claimsThreads, 60, TimeUnit.SECONDS,
+					new ArrayBlockingQueue<>(claimsQueueSize), r -> {
+						Thread t = new Thread(r, "claims-" + threadNumber.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}, new ThreadPoolExecutor.CallerRunsPolicy());
+			log.info("custom claims are produced on {} threads", claimsThreads);
+		}
 		log.debug("trying to load modifier for attribute.openid.sub");
-		subModifier = loadClaimValueModifier("attribute.openid.sub");
+		subModifier = loadClaimValueModifiers("attribute.openid.sub");
 		//custom claims
 		this.customClaims = new ArrayList<>(customClaimNames.size());
 		for (String claim : customClaimNames) {
@@ -144,13 +268,243 @@ public class PerunUserInfoService implements UserInfoService {
 			}
 			//get ClaimSource
 			ClaimSource claimSource = loadClaimSource(propertyPrefix);
+			if (claimSource != null && properties.getProperty(propertyPrefix + ".cache.ttl") != null) {
+				claimSource = new CachingClaimSource(newInitContext(propertyPrefix), claimSource);
+				log.info("values of claim {} are cached by {}", claim, claimSource);
+			}
 			//optional claim value modifier
-			ClaimModifier claimModifier = loadClaimValueModifier(propertyPrefix);
+			ClaimModifierChain claimModifier = loadClaimValueModifiers(propertyPrefix);
 			//add claim definition
-			customClaims.add(new PerunCustomClaimDefinition(scope, claim, claimSource, claimModifier));
+			PerunCustomClaimDefinition definition = new PerunCustomClaimDefinition(scope, claim, claimSource, claimModifier);
+			setTimeout(definition, propertyPrefix);
+			setSizeLimits(definition, propertyPrefix);
+			String dependsOn = properties.getProperty(propertyPrefix + ".dependsOn", "").trim();
+			if (!dependsOn.isEmpty()) {
+				definition.setDependsOn(Arrays.asList(dependsOn.split("\\s*,\\s*")));
+			}
+			if (claimSource instanceof CachingClaimSource) {
+				definition.setMaxAge(((CachingClaimSource) claimSource).getTtl() * 1000L);
+			}
+			customClaims.add(definition);
+		}
+		this.customClaims = sortByDependencies(customClaims);
+		if (databaseCache != null) {
+			databaseCache.setVersion(computeClaimsVersion());
+			log.info("database cache of UserInfo is {}", databaseCache.isEnabled() ? "enabled" : "disabled");
+		}
+	}
+
+	/**
+	 * Orders claims so that each claim comes after the claims it depends on.
+	 * Claims in a dependency cycle or depending on unknown claims are skipped.
+	 */
+	private List<PerunCustomClaimDefinition> sortByDependencies(List<PerunCustomClaimDefinition> claims) {
+		Map<String, PerunCustomClaimDefinition> byName = new HashMap<>();
+		for (PerunCustomClaimDefinition pccd : claims) {
+			byName.put(pccd.getClaim(), pccd);
+		}
+		List<PerunCustomClaimDefinition> sorted = new ArrayList<>(claims.size());
+		Map<String, Boolean> resolved = new HashMap<>();
+		for (PerunCustomClaimDefinition pccd : claims) {
+			addWithDependencies(pccd, byName, resolved, new LinkedHashSet<>(), sorted);
+		}
+		return sorted;
+	}
+
+	private boolean addWithDependencies(PerunCustomClaimDefinition pccd, Map<String, PerunCustomClaimDefinition> byName,
+										Map<String, Boolean> resolved, Set<String> path, List<PerunCustomClaimDefinition> sorted) {
+		String claim = pccd.getClaim();
+		if (resolved.containsKey(claim)) {
+			return resolved.get(claim);
+		}
+		if (!path.add(claim)) {
+			log.error("claims {} depend on each other in a cycle", path);
+			return false;
+		}
+		boolean ok = true;
+		for (String dependency : pccd.getDependsOn()) {
+			PerunCustomClaimDefinition dependencyDefinition = byName.get(dependency);
+			if (dependencyDefinition == null) {
+				log.error("claim {} depends on unknown claim {}", claim, dependency);
+				ok = false;
+			} else if (!addWithDependencies(dependencyDefinition, byName, resolved, path, sorted)) {
+				ok = false;
+			}
+		}
+		path.remove(claim);
+		resolved.put(claim, ok);
+		if (ok) {
+			sorted.add(pccd);
+		} else {
+			log.error("skipping custom claim {} because of its dependencies", claim);
+		}
+		return ok;
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (claimsExecutor != null) {
+			claimsExecutor.shutdownNow();
+		}
+		for (PerunCustomClaimDefinition pccd : customClaims) {
+			if (pccd.getClaimSource() != null) {
+				pccd.getClaimSource().close();
+			}
 		}
 	}
 
+	private void setTimeout(PerunCustomClaimDefinition definition, String propertyPrefix) {
+		long timeout = Long.parseLong(properties.getProperty(propertyPrefix + ".timeout", "0"));
+		if (timeout <= 0) {
+			return;
+		}
+		String onTimeout = properties.getProperty(propertyPrefix + ".onTimeout", "omit");
+		long lastValuesMaxSize = Long.parseLong(properties.getProperty(propertyPrefix + ".onTimeout.cacheSize", "10000"));
+		try {
+			definition.setTimeout(timeout, PerunCustomClaimDefinition.OnTimeout.valueOf(onTimeout.toUpperCase()), lastValuesMaxSize);
+			log.info("claim {} has timeout {} ms, on timeout uses {}", definition.getClaim(), timeout, onTimeout);
+		} catch (IllegalArgumentException e) {
+			log.error("unknown value {} of property {}.onTimeout, use omit, cached or null", onTimeout, propertyPrefix);
+		}
+	}
+
+	private void setSizeLimits(PerunCustomClaimDefinition definition, String propertyPrefix) {
+		definition.setUserinfoOnly(Boolean.parseBoolean(properties.getProperty(propertyPrefix + ".userinfoOnly", "false")));
+		int maxElements = 0;
+		String maxElementsProperty = properties.getProperty(propertyPrefix + ".maxElements", "0").trim();
+		try {
+			maxElements = Integer.parseInt(maxElementsProperty);
+		} catch (NumberFormatException e) {
+			log.error("invalid value {} of property {}.maxElements, the number of values is not limited", maxElementsProperty, propertyPrefix);
+		}
+		List<String> prefixes = null;
+		String prefixesProperty = properties.getProperty(propertyPrefix + ".prefixes");
+		if (prefixesProperty != null) {
+			prefixes = Arrays.asList(prefixesProperty.trim().split("\\s*,\\s*"));
+		}
+		Map<String, List<String>> clientPrefixes = new HashMap<>();
+		String clientPrefixesKey = propertyPrefix + ".prefixes.";
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(clientPrefixesKey)) {
+				clientPrefixes.put(key.substring(clientPrefixesKey.length()),
+						Arrays.asList(properties.getProperty(key).trim().split("\\s*,\\s*")));
+			}
+		}
+		definition.setSizeLimits(maxElements, prefixes, clientPrefixes);
+		if (maxElements > 0 || prefixes != null || !clientPrefixes.isEmpty() || definition.isUserinfoOnly()) {
+			log.info("claim {} has at most {} values, prefixes {}, client prefixes {}, userinfo only {}", definition.getClaim(),
+					maxElements > 0 ? maxElements : "unlimited", prefixes, clientPrefixes, definition.isUserinfoOnly());
+		}
+	}
+
+	private void initCache() {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(cacheMaxSize)
+				.expireAfterAccess(cacheExpireAfterAccessSeconds, TimeUnit.SECONDS)
+				.expireAfterWrite(cacheExpireAfterWriteSeconds, TimeUnit.SECONDS)
+				.removalListener(this::onRemoval)
+				.build(cacheLoader);
+		log.info("using UserInfo cache limited to {} entries", cacheMaxSize);
+		if (cacheCompact) {
+			this.compactCache = CacheBuilder.newBuilder()
+					.maximumWeight(cacheMaxBytes)
+					.weigher((UserClientPair key, CompactEntry value) -> value.bytes.length + ENTRY_OVERHEAD_BYTES)
+					.expireAfterAccess(cacheExpireAfterAccessSeconds, TimeUnit.SECONDS)
+					.expireAfterWrite(cacheExpireAfterWriteSeconds, TimeUnit.SECONDS)
+					.build();
+			log.info("using compact UserInfo cache limited to {} bytes", cacheMaxBytes);
+		} else {
+			this.compactCache = null;
+		}
+	}
+
+	private UserInfo getFromCache(UserClientPair key) throws ExecutionException {
+		PerunUserInfo ui = cache.get(key);
+		if (!isFresh(ui.getLoadedAt())) {
+			//entries moved between cache tiers keep their age
+			cache.asMap().remove(key, ui);
+			ui = cache.get(key);
+		}
+		return ui;
+	}
+
+	private boolean isFresh(long loadedAt) {
+		return System.currentTimeMillis() - loadedAt < TimeUnit.SECONDS.toMillis(cacheExpireAfterWriteSeconds);
+	}
+
+	/**
+	 * Keeps UserInfo removed from the cache for size or expiration. Claims produced since it was stored
+	 * are stored into the database cache in the background and an entry removed for size is moved to the compact cache.
+	 * Invalidated entries are dropped.
+	 */
+	private void onRemoval(RemovalNotification<UserClientPair, PerunUserInfo> notification) {
+		UserClientPair key = notification.getKey();
+		PerunUserInfo ui = notification.getValue();
+		if (!notification.wasEvicted() || key == null || ui == null || !isFresh(ui.getLoadedAt())) {
+			return;
+		}
+		if (databaseCache != null && ui.isChangedSinceStored()) {
+			databaseCache.store(key.getUserId(), key.getClientId(), ui);
+		}
+		if (compactCache != null && notification.getCause() == RemovalCause.SIZE) {
+			compactCache.put(key, new CompactEntry(PerunUserInfoCodec.toBytes(ui), ui.getLoadedAt(), ui.getStoredPendingCount()));
+		}
+	}
+
+	/**
+	 * Computes a fingerprint of the configuration which affects the produced claims,
+	 * so that UserInfo stored with different configuration is not used.
+	 */
+	private long computeClaimsVersion() {
+		Hasher hasher = Hashing.murmur3_128().newHasher();
+		hasher.putInt(PerunUserInfoCodec.FORMAT_VERSION);
+		for (String attr : standardAttributes()) {
+			hasher.putString(String.valueOf(attr), StandardCharsets.UTF_8);
+		}
+		for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+			if (key.startsWith("custom.claim") || key.startsWith("attribute.openid.sub")) {
+				hasher.putString(key, StandardCharsets.UTF_8).putString(properties.getProperty(key), StandardCharsets.UTF_8);
+			}
+		}
+		return hasher.hash().asLong();
+	}
+
+	/**
+	 * @return names of user attributes used for standard claims
+	 */
+	private List<String> standardAttributes() {
+		return Arrays.asList(subAttribute, preferredUsernameAttribute, givenNameAttribute, familyNameAttribute,
+				middleNameAttribute, fullNameAttribute, emailAttribute, addressAttribute, phoneAttribute, zoneinfoAttribute,
+				localeAttribute);
+	}
+
+	/**
+	 * Loads modifier from property prefix.modifierClass followed by modifiers listed in property prefix.modifiers,
+	 * each configured with properties prefix.modifier.NAME.* and combined into a single chain.
+	 */
+	private ClaimModifierChain loadClaimValueModifiers(String propertyPrefix) {
+		List<ClaimModifier> modifiers = new ArrayList<>();
+		ClaimModifier single = loadClaimValueModifier(propertyPrefix);
+		if (single != null) {
+			modifiers.add(single);
+		}
+		String names = properties.getProperty(propertyPrefix + MODIFIERS);
+		if (names != null) {
+			for (String name : names.split("\\s*,\\s*")) {
+				if (name.isEmpty()) {
+					continue;
+				}
+				ClaimModifier modifier = loadClaimValueModifier(propertyPrefix + ".modifier." + name);
+				if (modifier == null) {
+					log.error("cannot load modifier {} for {}, skipping it", name, propertyPrefix);
+				} else {
+					modifiers.add(modifier);
+				}
+			}
+		}
+		return modifiers.isEmpty() ? null : new ClaimModifierChain(modifiers);
+	}
+
 	private ClaimModifier loadClaimValueModifier(String propertyPrefix) {
 		String modifierClass = properties.getProperty(propertyPrefix + MODIFIER_CLASS);
 		if (modifierClass != null) {
@@ -162,7 +516,7 @@ public class PerunUserInfoService implements UserInfoService {
 				}
 				@SuppressWarnings("unchecked") Class<ClaimModifier> clazz = (Class<ClaimModifier>) rawClazz;
 				Constructor<ClaimModifier> constructor = clazz.getConstructor(ClaimModifierInitContext.class);
-				ClaimModifierInitContext ctx = new ClaimModifierInitContext(propertyPrefix, properties);
+				ClaimModifierInitContext ctx = new ClaimModifierInitContext(propertyPrefix, properties, valueMemo);
 				ClaimModifier claimModifier = constructor.newInstance(ctx);
 				log.info("loaded claim modifier '{}' for {}", claimModifier, propertyPrefix);
 				return claimModifier;
@@ -183,6 +537,11 @@ public class PerunUserInfoService implements UserInfoService {
 		}
 	}
 
+	private ClaimSourceInitContext newInitContext(String propertyPrefix) {
+		return new ClaimSourceInitContext(propertyPrefix, properties, jwtService,
+				configBean != null ? configBean.getIssuer() : null, valueMemo);
+	}
+
 	private ClaimSource loadClaimSource(String propertyPrefix) {
 		String sourceClass = properties.getProperty(propertyPrefix + SOURCE_CLASS, PerunAttributeClaimSource.class.getName());
 		try {
@@ -193,7 +552,7 @@ public class PerunUserInfoService implements UserInfoService {
 			}
 			@SuppressWarnings("unchecked") Class<ClaimSource> clazz = (Class<ClaimSource>) rawClazz;
 			Constructor<ClaimSource> constructor = clazz.getConstructor(ClaimSourceInitContext.class);
-			ClaimSourceInitContext ctx = new ClaimSourceInitContext(propertyPrefix, properties);
+			ClaimSourceInitContext ctx = newInitContext(propertyPrefix);
 			ClaimSource claimSource = constructor.newInstance(ctx);
 			log.info("loaded claim source '{}' for {}", claimSource, propertyPrefix);
 			return claimSource;
@@ -224,7 +583,7 @@ public class PerunUserInfoService implements UserInfoService {
 		}
 		UserInfo userInfo;
 		try {
-			userInfo = cache.get(new UserClientPair(username, clientId, client));
+			userInfo = getFromCache(new UserClientPair(username, clientId, client));
 			log.trace("loaded UserInfo from cache for '{}'/'{}'", userInfo.getName(), client.getClientName());
 		} catch (ExecutionException e) {
 			log.error("cannot get user from cache", e);
@@ -237,7 +596,7 @@ public class PerunUserInfoService implements UserInfoService {
 	public UserInfo getByUsername(String username) {
 		log.trace("getByUsername({})", username);
 		try {
-			return cache.get(new UserClientPair(username));
+			return getFromCache(new UserClientPair(username));
 		} catch (UncheckedExecutionException | ExecutionException e) {
 			log.error("cannot get user from cache", e);
 			return null;
@@ -250,11 +609,46 @@ public class PerunUserInfoService implements UserInfoService {
 		throw new RuntimeException("PerunUserInfoService.getByEmailAddress() not implemented");
 	}
 
-	public PerunUserInfoService() {
-		this.cache = CacheBuilder.newBuilder()
-				.maximumSize(100)
-				.expireAfterAccess(60, TimeUnit.SECONDS)
-				.build(cacheLoader);
+	@Override
+	public void invalidateUser(long userId) {
+		cache.asMap().keySet().removeIf(key -> key.getUserId() == userId);
+		if (compactCache != null) {
+			compactCache.asMap().keySet().removeIf(key -> key.getUserId() == userId);
+		}
+		if (databaseCache != null) {
+			databaseCache.delete(userId);
+		}
+		for (PerunCustomClaimDefinition pccd : customClaims) {
+			if (pccd.getClaimSource() instanceof InvalidatableCache) {
+				((InvalidatableCache) pccd.getClaimSource()).invalidateUser(userId);
+			}
+		}
+	}
+
+	@Override
+	public void invalidateFacility(long facilityId) {
+		//UserInfo does not depend on facilities
+	}
+
+	@Override
+	public void invalidateGroup(long groupId) {
+		//UserInfo is kept per user, members of the group are invalidated by invalidateUser
+	}
+
+	@Override
+	public void invalidateAll() {
+		cache.invalidateAll();
+		if (compactCache != null) {
+			compactCache.invalidateAll();
+		}
+		if (databaseCache != null) {
+			databaseCache.deleteAll();
+		}
+		for (PerunCustomClaimDefinition pccd : customClaims) {
+			if (pccd.getClaimSource() instanceof InvalidatableCache) {
+				((InvalidatableCache) pccd.getClaimSource()).invalidateAll();
+			}
+		}
 	}
 
 	private static class UserClientPair {
@@ -304,93 +698,329 @@ public class PerunUserInfoService implements UserInfoService {
 		}
 	}
 
-	private LoadingCache<UserClientPair, UserInfo> cache;
+	/**
+	 * Serialized UserInfo in the compact cache.
+	 */
+	private static class CompactEntry {
+		private final byte[] bytes;
+		private final long loadedAt;
+		private final int storedPendingCount;
+
+		CompactEntry(byte[] bytes, long loadedAt, int storedPendingCount) {
+			this.bytes = bytes;
+			this.loadedAt = loadedAt;
+			this.storedPendingCount = storedPendingCount;
+		}
+	}
+
+	/**
+	 * Approximate heap size of a compact cache entry without the value bytes (key, entry and array header).
+	 */
+	private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+	private LoadingCache<UserClientPair, PerunUserInfo> cache;
+	private Cache<UserClientPair, CompactEntry> compactCache;
 
 	@SuppressWarnings("FieldCanBeLocal")
-	private CacheLoader<UserClientPair, UserInfo> cacheLoader = new CacheLoader<UserClientPair, UserInfo>() {
+	private CacheLoader<UserClientPair, PerunUserInfo> cacheLoader = new CacheLoader<UserClientPair, PerunUserInfo>() {
 		@Override
-		public UserInfo load(UserClientPair pair) {
-			log.trace("load({}) ... populating cache for the key", pair);
-			PerunUserInfo ui = new PerunUserInfo();
-			long perunUserId = pair.getUserId();
-			RichUser richUser = perunConnector.getUserAttributes(perunUserId);
-			//process
+		public PerunUserInfo load(UserClientPair pair) {
+			return loadUserInfo(pair);
+		}
+	};
 
+	private PerunUserInfo loadUserInfo(UserClientPair pair) {
+		PerunUserInfo ui = loadUserInfoFromTiers(pair);
+		ui.setClientId(pair.getClientId());
+		return ui;
+	}
 
-			String sub = richUser.getAttributeValue(subAttribute);
-			if (sub == null) {
-				throw new RuntimeException("cannot get sub from attribute " + subAttribute + " for username " + perunUserId);
+	private PerunUserInfo loadUserInfoFromTiers(UserClientPair pair) {
+		log.trace("load({}) ... populating cache for the key", pair);
+		if (compactCache != null) {
+			CompactEntry compact = compactCache.asMap().remove(pair);
+			if (compact != null && isFresh(compact.loadedAt)) {
+				log.trace("UserInfo for {} found in compact cache", pair);
+				PerunUserInfo ui = PerunUserInfoCodec.fromBytes(compact.bytes);
+				ui.setLoadedAt(compact.loadedAt);
+				ui.setStoredPendingCount(compact.storedPendingCount);
+				setPendingClaims(ui, pair);
+				return ui;
 			}
-			if (subModifier != null) {
-				//transform sub value
-				sub = subModifier.modify(sub);
+		}
+		if (databaseCache != null) {
+			PerunUserInfo stored = databaseCache.get(pair.getUserId(), pair.getClientId());
+			if (stored != null) {
+				log.trace("UserInfo for {} found in database cache", pair);
+				stored.markStored();
+				setPendingClaims(stored, pair);
+				return stored;
 			}
+		}
+		return createUserInfo(pair);
+	}
 
-			ui.setId(perunUserId);
-			ui.setSub(sub); // Subject - Identifier for the End-User at the Issuer.
-
-			ui.setPreferredUsername(richUser.getAttributeValue(preferredUsernameAttribute)); // Shorthand name by which the End-User wishes to be referred to at the RP
-			ui.setGivenName(richUser.getAttributeValue(givenNameAttribute)); //  Given name(s) or first name(s) of the End-User
-			ui.setFamilyName(richUser.getAttributeValue(familyNameAttribute)); // Surname(s) or last name(s) of the End-User
-			ui.setMiddleName(richUser.getAttributeValue(middleNameAttribute)); //  Middle name(s) of the End-User
-			ui.setName(richUser.getAttributeValue(fullNameAttribute)); // End-User's full name
-			//ui.setNickname(); // Casual name of the End-User
-			//ui.setProfile(); //  URL of the End-User's profile page.
-			//ui.setPicture(); // URL of the End-User's profile picture.
-			//ui.setWebsite(); // URL of the End-User's Web page or blog.
-			ui.setEmail(richUser.getAttributeValue(emailAttribute)); // End-User's preferred e-mail address.
-			//ui.setEmailVerified(true); // True if the End-User's e-mail address has been verified
-			//ui.setGender("male"); // End-User's gender. Values defined by this specification are female and male.
-			//ui.setBirthdate("1975-01-01");//End-User's birthday, represented as an ISO 8601:2004 [ISO8601‑2004] YYYY-MM-DD format.
-			ui.setZoneinfo(richUser.getAttributeValue(zoneinfoAttribute));//String from zoneinfo [zoneinfo] time zone database, For example, Europe/Paris
-			ui.setLocale(richUser.getAttributeValue(localeAttribute)); //  For example, en-US or fr-CA.
-			ui.setPhoneNumber(richUser.getAttributeValue(phoneAttribute)); //[E.164] is RECOMMENDED as the format, for example, +1 (425) 555-121
-			//ui.setPhoneNumberVerified(true); // True if the End-User's phone number has been verified
-			//ui.setUpdatedTime(Long.toString(System.currentTimeMillis()/1000L));// value is a JSON number representing the number of seconds from 1970-01-01T0:0:0Z as measured in UTC until the date/time
-			Address address = new DefaultAddress();
-			address.setFormatted(richUser.getAttributeValue(addressAttribute));
-			//address.setStreetAddress("Šumavská 15");
-			//address.setLocality("Brno");
-			//address.setPostalCode("61200");
-			//address.setCountry("Czech Republic");
-			ui.setAddress(address);
-			//custom claims
-			ClaimSourceProduceContext pctx = new ClaimSourceProduceContext(perunUserId, sub, richUser, perunConnector, pair.getClient());
-			log.trace("processing custom claims");
-			for (PerunCustomClaimDefinition pccd : customClaims) {
-				log.trace("producing value for custom claim {}", pccd.getClaim());
-				JsonNode claimInJson = pccd.getClaimSource().produceValue(pctx);
-				log.trace("produced value {}={}", pccd.getClaim(), claimInJson);
-				if (claimInJson == null) {
-					log.debug("claim {} is null", pccd.getClaim());
-					continue;
+	private PerunUserInfo createUserInfo(UserClientPair pair) {
+		long start = System.nanoTime();
+		PerunUserInfo ui = new PerunUserInfo();
+		long perunUserId = pair.getUserId();
+		List<PerunCustomClaimDefinition> clientClaims = getClaimsForClient(pair);
+		RichUser richUser = fetchUserAttributes(perunUserId, clientClaims);
+		long fetchNanos = System.nanoTime() - start;
+		//process
+
+
+		String sub = richUser.getAttributeValue(subAttribute);
+		if (sub == null) {
+			throw new RuntimeException("cannot get sub from attribute " + subAttribute + " for username " + perunUserId);
+		}
+		if (subModifier != null) {
+			//transform sub value
+			sub = subModifier.modify(sub);
+		}
+
+		ui.setId(perunUserId);
+		ui.setSub(sub); // Subject - Identifier for the End-User at the Issuer.
+
+		ui.setPreferredUsername(richUser.getAttributeValue(preferredUsernameAttribute)); // Shorthand name by which the End-User wishes to be referred to at the RP
+		ui.setGivenName(richUser.getAttributeValue(givenNameAttribute)); //  Given name(s) or first name(s) of the End-User
+		ui.setFamilyName(richUser.getAttributeValue(familyNameAttribute)); // Surname(s) or last name(s) of the End-User
+		ui.setMiddleName(richUser.getAttributeValue(middleNameAttribute)); //  Middle name(s) of the End-User
+		ui.setName(richUser.getAttributeValue(fullNameAttribute)); // End-User's full name
+		//ui.setNickname(); // Casual name of the End-User
+		//ui.setProfile(); //  URL of the End-User's profile page.
+		//ui.setPicture(); // URL of the End-User's profile picture.
+		//ui.setWebsite(); // URL of the End-User's Web page or blog.
+		ui.setEmail(richUser.getAttributeValue(emailAttribute)); // End-User's preferred e-mail address.
+		//ui.setEmailVerified(true); // True if the End-User's e-mail address has been verified
+		//ui.setGender("male"); // End-User's gender. Values defined by this specification are female and male.
+		//ui.setBirthdate("1975-01-01");//End-User's birthday, represented as an ISO 8601:2004 [ISO8601‑2004] YYYY-MM-DD format.
+		ui.setZoneinfo(richUser.getAttributeValue(zoneinfoAttribute));//String from zoneinfo [zoneinfo] time zone database, For example, Europe/Paris
+		ui.setLocale(richUser.getAttributeValue(localeAttribute)); //  For example, en-US or fr-CA.
+		ui.setPhoneNumber(richUser.getAttributeValue(phoneAttribute)); //[E.164] is RECOMMENDED as the format, for example, +1 (425) 555-121
+		//ui.setPhoneNumberVerified(true); // True if the End-User's phone number has been verified
+		//ui.setUpdatedTime(Long.toString(System.currentTimeMillis()/1000L));// value is a JSON number representing the number of seconds from 1970-01-01T0:0:0Z as measured in UTC until the date/time
+		Address address = new DefaultAddress();
+		address.setFormatted(richUser.getAttributeValue(addressAttribute));
+		//address.setStreetAddress("Šumavská 15");
+		//address.setLocality("Brno");
+		//address.setPostalCode("61200");
+		//address.setCountry("Czech Republic");
+		ui.setAddress(address);
+		//custom claims
+		log.trace("processing custom claims");
+		setLazyClaims(ui, pair, clientClaims, richUser);
+		if (claimMetrics != null) {
+			claimMetrics.recordLoadWithoutClaims(fetchNanos, System.nanoTime() - start);
+		}
+		if (databaseCache != null) {
+			//written in the background, claims produced by this request are usually stored too
+			databaseCache.store(perunUserId, pair.getClientId(), ui);
+		}
+		log.trace("UserInfo created");
+		return ui;
+	}
+
+	/**
+	 * Sets lazily produced values of custom claims into UserInfo. Values of claims which are not set
+	 * are used by dependent claims only.
+	 *
+	 * @param claims claims to be produced ordered by dependencies
+	 * @param richUser user attributes fetched for the claims, or null to fetch them when the first claim is produced
+	 */
+	private void setLazyClaims(PerunUserInfo ui, UserClientPair pair, List<PerunCustomClaimDefinition> claims, RichUser richUser) {
+		Map<String, LazyClaimValue> values = new HashMap<>();
+		Set<String> clientClaims = new HashSet<>();
+		for (PerunCustomClaimDefinition pccd : customClaims) {
+			if (isClaimForClient(pair, pccd)) {
+				clientClaims.add(pccd.getClaim());
+			}
+		}
+		ProduceContextHolder contexts = new ProduceContextHolder(pair, ui.getSub(), claims, richUser, claim -> {
+			LazyClaimValue value = values.get(claim);
+			if (value != null) {
+				return value.getForDependent();
+			}
+			if (clientClaims.contains(claim)) {
+				//claims which are not produced again have their values in UserInfo
+				return ui.getCustomClaim(claim);
+			}
+			throw new ClaimValueUnavailableException("claim " + claim + " is not available, it must be listed in dependsOn");
+		});
+		for (PerunCustomClaimDefinition pccd : claims) {
+			LazyClaimValue value = new LazyClaimValue(pccd, pair.getUserId(), pair.getClientId(),
+					() -> produceClaimValue(pccd, contexts.get(pccd.getMaxAge())), claimsExecutor,
+					() -> contexts.get(pccd.getMaxAge()).prefetch(pccd.getClaimSource().getRequirements().getLookups()));
+			values.put(pccd.getClaim(), value);
+			if (isClaimForClient(pair, pccd)) {
+				ui.setLazyCustomClaim(pccd.getClaim(), value);
+			}
+		}
+	}
+
+	/**
+	 * Sets lazily produced values of claims which were not produced before UserInfo was serialized.
+	 */
+	private void setPendingClaims(PerunUserInfo ui, UserClientPair pair) {
+		Set<String> pending = ui.getPendingCustomClaims();
+		if (!pending.isEmpty()) {
+			log.trace("claims {} of {} will be produced again", pending, pair);
+			setLazyClaims(ui, pair, getClaimsForClient(pair, pending), null);
+		}
+	}
+
+	/**
+	 * Gets custom claims which can be released to the client, i.e. claims in scopes registered for the client,
+	 * together with claims they depend on, ordered by dependencies.
+	 */
+	private List<PerunCustomClaimDefinition> getClaimsForClient(UserClientPair pair) {
+		return getClaimsForClient(pair, null);
+	}
+
+	/**
+	 * Gets custom claims of the client which are pending, together with claims they depend on and which
+	 * are not in UserInfo, ordered by dependencies.
+	 *
+	 * @param pending names of pending claims, null means all claims of the client
+	 */
+	private List<PerunCustomClaimDefinition> getClaimsForClient(UserClientPair pair, Set<String> pending) {
+		Set<String> needed = new HashSet<>();
+		Set<String> produced = new HashSet<>();
+		for (PerunCustomClaimDefinition pccd : customClaims) {
+			if (isClaimForClient(pair, pccd)) {
+				if (pending == null || pending.contains(pccd.getClaim())) {
+					needed.add(pccd.getClaim());
+				} else {
+					produced.add(pccd.getClaim());
 				}
-				ClaimModifier claimModifier = pccd.getClaimModifier();
+			}
+		}
+		//dependencies precede dependent claims, so going backwards reaches all of them
+		for (int i = customClaims.size() - 1; i >= 0; i--) {
+			PerunCustomClaimDefinition pccd = customClaims.get(i);
+			if (needed.contains(pccd.getClaim())) {
+				for (String dependency : pccd.getDependsOn()) {
+					if (!produced.contains(dependency)) {
+						needed.add(dependency);
+					}
+				}
+			}
+		}
+		List<PerunCustomClaimDefinition> claims = new ArrayList<>(needed.size());
+		for (PerunCustomClaimDefinition pccd : customClaims) {
+			if (pccd.getClaimSource() != null && needed.contains(pccd.getClaim())) {
+				claims.add(pccd);
+			}
+		}
+		return claims;
+	}
+
+	private boolean isClaimForClient(UserClientPair pair, PerunCustomClaimDefinition pccd) {
+		if (pccd.getClaimSource() == null) {
+			return false;
+		}
+		Set<String> clientScopes = pair.getClient() != null ? pair.getClient().getScope() : null;
+		if (clientScopes != null && !clientScopes.isEmpty() && !clientScopes.contains(pccd.getScope())) {
+			//the client can never be granted the scope, so the claim is never needed
+			log.trace("skipping claim {}, client {} does not have scope {}", pccd.getClaim(), pair.getClientId(), pccd.getScope());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Fetches user attributes needed for standard claims and the given custom claims in one call.
+	 * When a claim source did not declare its attributes, all attributes are fetched.
+	 */
+	private RichUser fetchUserAttributes(long perunUserId, List<PerunCustomClaimDefinition> claims) {
+		Set<String> attributeNames = new LinkedHashSet<>();
+		for (String attr : standardAttributes()) {
+			if (attr != null && !attr.isEmpty()) {
+				attributeNames.add(attr);
+			}
+		}
+		for (PerunCustomClaimDefinition pccd : claims) {
+			ClaimSourceRequirements requirements = pccd.getClaimSource().getRequirements();
+			if (!requirements.isDeclared()) {
+				log.trace("claim {} needs all user attributes", pccd.getClaim());
+				return perunConnector.getUserAttributes(perunUserId);
+			}
+			attributeNames.addAll(requirements.getUserAttributes());
+		}
+		log.trace("fetching user attributes {}", attributeNames);
+		return perunConnector.getUserAttributes(perunUserId, new ArrayList<>(attributeNames));
+	}
+
+	/**
+	 * Creates the produce context shared by lazy claims of one UserInfo. When user attributes were not fetched
+	 * together with standard claims, they are fetched when the first claim is produced. Claims with maxAge
+	 * get a new context with freshly fetched attributes and lookups when the current one is older than maxAge.
+	 */
+	private class ProduceContextHolder {
+		private final UserClientPair pair;
+		private final String sub;
+		private final List<PerunCustomClaimDefinition> claims;
+		private final Function<String, JsonNode> claimValues;
+		private ClaimSourceProduceContext pctx;
+		private long createdAt;
+
+		ProduceContextHolder(UserClientPair pair, String sub, List<PerunCustomClaimDefinition> claims, RichUser richUser,
+							 Function<String, JsonNode> claimValues) {
+			this.pair = pair;
+			this.sub = sub;
+			this.claims = claims;
+			this.claimValues = claimValues;
+			if (richUser != null) {
+				this.pctx = newContext(richUser);
+			}
+		}
+
+		/**
+		 * @param maxAge maximum age of the context in milliseconds, 0 means any age
+		 */
+		synchronized ClaimSourceProduceContext get(long maxAge) {
+			if (pctx == null || (maxAge > 0 && System.currentTimeMillis() - createdAt >= maxAge)) {
+				log.trace("fetching user attributes for claims of {}", pair);
+				pctx = newContext(fetchUserAttributes(pair.getUserId(), claims));
+			}
+			return pctx;
+		}
+
+		private ClaimSourceProduceContext newContext(RichUser richUser) {
+			createdAt = System.currentTimeMillis();
+			ClaimSourceProduceContext ctx = new ClaimSourceProduceContext(pair.getUserId(), sub, richUser, perunConnector,
+					pair.getClient(), claimsExecutor);
+			ctx.setClaimValues(claimValues);
+			return ctx;
+		}
+	}
+
+	private JsonNode produceClaimValue(PerunCustomClaimDefinition pccd, ClaimSourceProduceContext pctx) {
+		try {
+			long start = System.nanoTime();
+			log.trace("producing value for custom claim {}", pccd.getClaim());
+			JsonNode claimInJson = pccd.getClaimSource().produceValue(pctx);
+			log.trace("produced value {}={}", pccd.getClaim(), claimInJson);
+			long produced = System.nanoTime();
+			if (claimInJson == null) {
+				log.debug("claim {} is null", pccd.getClaim());
+			} else {
+				ClaimModifierChain claimModifier = pccd.getClaimModifier();
 				if (claimModifier != null) {
 					log.debug("modifying values of claim '{}' using {}", pccd.getClaim(), claimModifier);
-					//transform values
-					if (claimInJson.isTextual()) {
-						//transform a simple string value
-						claimInJson = TextNode.valueOf(claimModifier.modify(claimInJson.asText()));
-					} else if (claimInJson.isArray()) {
-						claimInJson = claimInJson.deepCopy();
-						//transform all strings in an array
-						ArrayNode arrayNode = (ArrayNode) claimInJson;
-						for (int i = 0; i < arrayNode.size(); i++) {
-							JsonNode item = arrayNode.get(i);
-							if (item.isTextual()) {
-								String original = item.asText();
-								String modified = claimModifier.modify(original);
-								arrayNode.set(i, TextNode.valueOf(modified));
-							}
-						}
-					}
+					claimInJson = claimModifier.modify(claimInJson);
 				}
-				ui.getCustomClaims().put(pccd.getClaim(), claimInJson);
 			}
-			log.trace("UserInfo created");
-			return ui;
+			if (claimMetrics != null) {
+				claimMetrics.recordClaim(pccd, produced - start, System.nanoTime() - produced, claimInJson);
+			}
+			return claimInJson;
+		} catch (RuntimeException ex) {
+			if (claimMetrics != null) {
+				claimMetrics.recordClaimError(pccd);
+			}
+			throw ex;
 		}
-	};
+	}
 
 }
@@ -0,0 +1,104 @@
+package cz.muni.ics.oidc.server.caches;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a local file into which Perun audit messages are delivered, one message per line,
+ * and passes new messages to {@link CacheInvalidationService}. Messages present in the file
+ * at startup are skipped, a truncated or rotated file is read from its beginning.
+ */
+public class AuditLogFileEventSource {
+
+	private final static Logger log = LoggerFactory.getLogger(AuditLogFileEventSource.class);
+
+	private CacheInvalidationService cacheInvalidationService;
+	private String fileName;
+	private long pollIntervalSeconds = 5;
+
+	private ScheduledExecutorService executor;
+	private long position = -1;
+
+	public void setCacheInvalidationService(CacheInvalidationService cacheInvalidationService) {
+		this.cacheInvalidationService = cacheInvalidationService;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public void setPollIntervalSeconds(long pollIntervalSeconds) {
+		this.pollIntervalSeconds = pollIntervalSeconds;
+	}
+
+	@PostConstruct
+	public void postInit() {
+		if (fileName == null || fileName.trim().isEmpty()) {
+			log.info("audit messages file not set, cache invalidation from audit messages is disabled");
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "audit-log-reader");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleWithFixedDelay(this::poll, 0, pollIntervalSeconds, TimeUnit.SECONDS);
+		log.info("reading audit messages from {} every {} seconds", fileName, pollIntervalSeconds);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void poll() {
+		File file = new File(fileName);
+		if (!file.exists()) {
+			return;
+		}
+		long length = file.length();
+		if (position < 0) {
+			position = length;
+			return;
+		}
+		if (length < position) {
+			log.info("audit messages file {} was truncated, reading from its beginning", fileName);
+			position = 0;
+		}
+		if (length == position) {
+			return;
+		}
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+			raf.seek(length - 1);
+			boolean complete = raf.read() == '\n';
+			raf.seek(position);
+			int count = 0;
+			String line;
+			while ((line = raf.readLine()) != null) {
+				if (raf.getFilePointer() > length || (!complete && raf.getFilePointer() == length)) {
+					//the message is still being written, read it next time
+					break;
+				}
+				if (!line.isEmpty()) {
+					cacheInvalidationService.processAuditMessage(line);
+					count++;
+				}
+				position = raf.getFilePointer();
+			}
+			log.debug("processed {} audit messages", count);
+		} catch (IOException | RuntimeException ex) {
+			log.warn("cannot read audit messages from {}: {}", fileName, ex.getMessage());
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package cz.muni.ics.oidc.server.caches;
+
+import cz.muni.ics.oidc.server.connectors.PerunConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Evicts entries of changed Perun objects from all registered caches, so that caches can have long TTLs
+ * and still do not serve stale data. Invalidation is triggered from the admin API
+ * or from feeds of Perun audit messages, see {@link AuditLogFileEventSource}.
+ * A changed group invalidates its members, which are resolved through the Perun connector. When they cannot
+ * be resolved, cached entries of the members are left to expire.
+ */
+public class CacheInvalidationService {
+
+	private final static Logger log = LoggerFactory.getLogger(CacheInvalidationService.class);
+
+	private static final Pattern USER_ID = Pattern.compile("(?:User:\\[id=|userId=)<(\\d+)>");
+	private static final Pattern FACILITY_ID = Pattern.compile("Facility:\\[id=<(\\d+)>");
+	private static final Pattern GROUP_ID = Pattern.compile("Group:\\[id=<(\\d+)>");
+
+	private final List<InvalidatableCache> caches = new CopyOnWriteArrayList<>();
+	private PerunConnector perunConnector;
+	private final AtomicLong users = new AtomicLong();
+	private final AtomicLong facilities = new AtomicLong();
+	private final AtomicLong groups = new AtomicLong();
+	private final AtomicLong unresolvedGroups = new AtomicLong();
+	private final AtomicLong all = new AtomicLong();
+	private final AtomicLong messages = new AtomicLong();
+
+	public void setCaches(List<InvalidatableCache> caches) {
+		this.caches.clear();
+		this.caches.addAll(caches);
+	}
+
+	public void setPerunConnector(PerunConnector perunConnector) {
+		this.perunConnector = perunConnector;
+	}
+
+	/**
+	 * Registers a cache created outside of the Spring configuration.
+	 *
+	 * @param cache cache to be invalidated
+	 */
+	public void register(InvalidatableCache cache) {
+		caches.add(cache);
+	}
+
+	public void invalidateUser(long userId) {
+		log.debug("invalidating user {}", userId);
+		users.incrementAndGet();
+		for (InvalidatableCache cache : caches) {
+			cache.invalidateUser(userId);
+		}
+	}
+
+	public void invalidateFacility(long facilityId) {
+		log.debug("invalidating facility {}", facilityId);
+		facilities.incrementAndGet();
+		for (InvalidatableCache cache : caches) {
+			cache.invalidateFacility(facilityId);
+		}
+	}
+
+	public void invalidateGroup(long groupId) {
+		log.debug("invalidating group {}", groupId);
+		groups.incrementAndGet();
+		for (InvalidatableCache cache : caches) {
+			cache.invalidateGroup(groupId);
+		}
+		if (perunConnector == null) {
+			return;
+		}
+		List<Long> userIds;
+		try {
+			userIds = perunConnector.getGroupMemberUserIds(groupId);
+		} catch (RuntimeException e) {
+			unresolvedGroups.incrementAndGet();
+			log.warn("cannot get members of group {}, their cached entries will expire: {}", groupId, e.getMessage());
+			return;
+		}
+		log.debug("invalidating {} members of group {}", userIds.size(), groupId);
+		for (Long userId : userIds) {
+			invalidateUser(userId);
+		}
+	}
+
+	public void invalidateAll() {
+		log.info("invalidating all caches");
+		all.incrementAndGet();
+		for (InvalidatableCache cache : caches) {
+			cache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Invalidates all users, facilities and groups mentioned in a Perun audit message. Groups are invalidated
+	 * only by messages which do not name a user, a membership change affects just the named user.
+	 *
+	 * @param message audit message, e.g. "Member:[id=&lt;1&gt;, userId=&lt;2&gt;, ...] added to Group:[id=&lt;3&gt;, ...]."
+	 */
+	public void processAuditMessage(String message) {
+		messages.incrementAndGet();
+		List<Long> userIds = findIds(USER_ID, message);
+		for (Long id : userIds) {
+			invalidateUser(id);
+		}
+		for (Long id : findIds(FACILITY_ID, message)) {
+			invalidateFacility(id);
+		}
+		if (userIds.isEmpty()) {
+			for (Long id : findIds(GROUP_ID, message)) {
+				invalidateGroup(id);
+			}
+		}
+	}
+
+	/**
+	 * Gets numbers of invalidations since startup.
+	 */
+	public Map<String, Long> getStats() {
+		Map<String, Long> stats = new LinkedHashMap<>();
+		stats.put("users", users.get());
+		stats.put("facilities", facilities.get());
+		stats.put("groups", groups.get());
+		stats.put("unresolvedGroups", unresolvedGroups.get());
+		stats.put("all", all.get());
+		stats.put("auditMessages", messages.get());
+		return stats;
+	}
+
+	private List<Long> findIds(Pattern pattern, String message) {
+		List<Long> ids = new ArrayList<>(1);
+		Matcher m = pattern.matcher(message);
+		while (m.find()) {
+			Long id = Long.valueOf(m.group(1));
+			if (!ids.contains(id)) {
+				ids.add(id);
+			}
+		}
+		return ids;
+	}
+}
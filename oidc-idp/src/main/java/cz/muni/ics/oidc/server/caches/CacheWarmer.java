@@ -0,0 +1,201 @@
+package cz.muni.ics.oidc.server.caches;
+
+import cz.muni.ics.oidc.models.Facility;
+import cz.muni.ics.oidc.server.PerunUserInfoDatabaseCache;
+import cz.muni.ics.oidc.server.configurations.FacilityAttrsConfig;
+import cz.muni.ics.oidc.server.connectors.PerunConnector;
+import org.mitre.openid.connect.service.UserInfoService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Preloads caches after startup, so that the first logins after deploy do not all go to Perun.
+ * Uses login statistics to find the most used services and loads their facilities and facility attributes.
+ * Optionally loads UserInfo of recently active users found in the shared UserInfo cache.
+ * Runs in background on a small thread pool and logs its progress.
+ */
+public class CacheWarmer {
+
+	private final static Logger log = LoggerFactory.getLogger(CacheWarmer.class);
+
+	private boolean enabled;
+	private int topServices = 50;
+	private int days = 7;
+	private int recentUsers = 0;
+	private int threads = 2;
+	private String statisticsTableName;
+	private DataSource statisticsDataSource;
+	private PerunConnector perunConnector;
+	private FacilityAttrsConfig facilityAttrsConfig;
+	private UserInfoService userInfoService;
+	private PerunUserInfoDatabaseCache userInfoDatabaseCache;
+
+	private ExecutorService executor;
+	private final AtomicInteger total = new AtomicInteger();
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private volatile long startedAt;
+
+	public void setEnabled(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public void setTopServices(int topServices) {
+		this.topServices = topServices;
+	}
+
+	public void setDays(int days) {
+		this.days = days;
+	}
+
+	public void setRecentUsers(int recentUsers) {
+		this.recentUsers = recentUsers;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void setStatisticsTableName(String statisticsTableName) {
+		this.statisticsTableName = statisticsTableName;
+	}
+
+	public void setStatisticsDataSource(DataSource statisticsDataSource) {
+		this.statisticsDataSource = statisticsDataSource;
+	}
+
+	public void setPerunConnector(PerunConnector perunConnector) {
+		this.perunConnector = perunConnector;
+	}
+
+	public void setFacilityAttrsConfig(FacilityAttrsConfig facilityAttrsConfig) {
+		this.facilityAttrsConfig = facilityAttrsConfig;
+	}
+
+	public void setUserInfoService(UserInfoService userInfoService) {
+		this.userInfoService = userInfoService;
+	}
+
+	public void setUserInfoDatabaseCache(PerunUserInfoDatabaseCache userInfoDatabaseCache) {
+		this.userInfoDatabaseCache = userInfoDatabaseCache;
+	}
+
+	public int getTotal() {
+		return total.get();
+	}
+
+	public int getCompleted() {
+		return completed.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	//called when all beans are initialized, but twice, once for root context and once for spring-servlet
+	@EventListener
+	public void handleContextRefresh(ContextRefreshedEvent event) {
+		if (event.getApplicationContext().getParent() == null && enabled && executor == null) {
+			log.info("starting cache warm-up on {} threads", threads);
+			startedAt = System.currentTimeMillis();
+			executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+				Thread t = new Thread(r, "cache-warmer");
+				t.setDaemon(true);
+				return t;
+			});
+			executor.submit(this::planWarmUp);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private void planWarmUp() {
+		List<String> clientIds = topServices > 0 ? findTopServices() : new ArrayList<>();
+		List<PerunUserInfoDatabaseCache.StoredKey> users = (recentUsers > 0 && userInfoDatabaseCache != null) ?
+				userInfoDatabaseCache.findRecent(recentUsers) : new ArrayList<>();
+		total.set(clientIds.size() + users.size());
+		log.info("cache warm-up will load {} services and {} users", clientIds.size(), users.size());
+		if (total.get() == 0) {
+			return;
+		}
+		for (String clientId : clientIds) {
+			executor.submit(() -> track("service " + clientId, () -> warmService(clientId)));
+		}
+		for (PerunUserInfoDatabaseCache.StoredKey key : users) {
+			executor.submit(() -> track("user " + key.getUserId(), () -> warmUser(key)));
+		}
+	}
+
+	private List<String> findTopServices() {
+		List<String> clientIds = new ArrayList<>();
+		LocalDate since = LocalDate.now().minusDays(days);
+		String query = "SELECT service, SUM(count) AS logins FROM " + statisticsTableName +
+				" WHERE year * 10000 + month * 100 + day >= ? GROUP BY service ORDER BY logins DESC";
+		try (Connection c = statisticsDataSource.getConnection();
+			 PreparedStatement ps = c.prepareStatement(query)) {
+			ps.setMaxRows(topServices);
+			ps.setInt(1, since.getYear() * 10000 + since.getMonthValue() * 100 + since.getDayOfMonth());
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					clientIds.add(rs.getString(1));
+				}
+			}
+		} catch (SQLException ex) {
+			log.warn("cannot read most used services from statistics: {}", ex.getMessage());
+		}
+		return clientIds;
+	}
+
+	private void warmService(String clientId) {
+		Facility facility = perunConnector.getFacilityByClientId(clientId);
+		if (facility != null) {
+			perunConnector.getFacilityAttributes(facility, facilityAttrsConfig.getMembershipAttrsAsList());
+		}
+	}
+
+	private void warmUser(PerunUserInfoDatabaseCache.StoredKey key) {
+		String username = Long.toString(key.getUserId());
+		if (key.getClientId() == null) {
+			userInfoService.getByUsername(username);
+		} else {
+			userInfoService.getByUsernameAndClientId(username, key.getClientId());
+		}
+	}
+
+	private void track(String what, Runnable task) {
+		try {
+			task.run();
+		} catch (RuntimeException ex) {
+			failed.incrementAndGet();
+			log.debug("cache warm-up of {} failed: {}", what, ex.getMessage());
+		}
+		int done = completed.incrementAndGet();
+		int all = total.get();
+		if (done == all) {
+			log.info("cache warm-up finished in {} ms, loaded {} items, {} failed", System.currentTimeMillis() - startedAt, all, failed.get());
+			executor.shutdown();
+		} else if (all >= 10 && done % (all / 10) == 0) {
+			log.info("cache warm-up progress {}/{}", done, all);
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package cz.muni.ics.oidc.server.caches;
+
+/**
+ * Cache which can evict entries related to a changed Perun object.
+ * Implementations ignore kinds of objects they do not keep.
+ */
+public interface InvalidatableCache {
+
+	/**
+	 * Evicts entries of the given user.
+	 *
+	 * @param userId Perun user id
+	 */
+	void invalidateUser(long userId);
+
+	/**
+	 * Evicts entries of the given facility.
+	 *
+	 * @param facilityId Perun facility id
+	 */
+	void invalidateFacility(long facilityId);
+
+	/**
+	 * Evicts entries kept for the given group itself. Entries of its members are evicted by
+	 * {@link #invalidateUser(long)}, see {@link CacheInvalidationService#invalidateGroup(long)}.
+	 *
+	 * @param groupId Perun group id
+	 */
+	void invalidateGroup(long groupId);
+
+	/**
+	 * Evicts all entries.
+	 */
+	void invalidateAll();
+}
@@ -0,0 +1,131 @@
+package cz.muni.ics.oidc.server.claims;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import cz.muni.ics.oidc.server.caches.InvalidatableCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches values produced by another claim source, so that the claim can have its own lifetime
+ * independent of the UserInfo cache.
+ *
+ * Configuration (replace [claimName] with the name of the claim):
+ * <ul>
+ *     <li><b>custom.claim.[claimName].cache.ttl</b> - lifetime of cached values in seconds</li>
+ *     <li><b>custom.claim.[claimName].cache.maxSize</b> - maximum number of cached values, default 10000</li>
+ *     <li><b>custom.claim.[claimName].cache.perClient</b> - true if the value depends on the client, default false</li>
+ * </ul>
+ */
+public class CachingClaimSource extends ClaimSource implements InvalidatableCache {
+
+	private static final Logger log = LoggerFactory.getLogger(CachingClaimSource.class);
+
+	private final ClaimSource delegate;
+	private final long ttl;
+	private final boolean perClient;
+	private final Cache<Key, Optional<JsonNode>> cache;
+
+	public CachingClaimSource(ClaimSourceInitContext ctx, ClaimSource delegate) {
+		super(ctx);
+		this.delegate = delegate;
+		this.ttl = ctx.getLongProperty("cache.ttl", 60, 0);
+		this.perClient = Boolean.parseBoolean(ctx.getProperty("cache.perClient", "false"));
+		long maxSize = ctx.getLongProperty("cache.maxSize", 10000, 0);
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(ttl, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * @return lifetime of cached values in seconds
+	 */
+	public long getTtl() {
+		return ttl;
+	}
+
+	/**
+	 * @return claim source whose values are cached
+	 */
+	public ClaimSource getDelegate() {
+		return delegate;
+	}
+
+	@Override
+	public ClaimSourceRequirements getRequirements() {
+		return delegate.getRequirements();
+	}
+
+	@Override
+	public void close() {
+		delegate.close();
+	}
+
+	@Override
+	public JsonNode produceValue(ClaimSourceProduceContext pctx) {
+		String clientId = (perClient && pctx.getClient() != null) ? pctx.getClient().getClientId() : null;
+		Key key = new Key(pctx.getPerunUserId(), clientId);
+		try {
+			return cache.get(key, () -> Optional.ofNullable(delegate.produceValue(pctx))).orElse(null);
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+		}
+	}
+
+	@Override
+	public void invalidateUser(long userId) {
+		cache.asMap().keySet().removeIf(key -> key.userId == userId);
+	}
+
+	@Override
+	public void invalidateFacility(long facilityId) {
+	}
+
+	@Override
+	public void invalidateGroup(long groupId) {
+		//values are cached per user, members of the group are invalidated by invalidateUser
+	}
+
+	@Override
+	public void invalidateAll() {
+		log.debug("invalidating cached values of {}", delegate);
+		cache.invalidateAll();
+	}
+
+	@Override
+	public String toString() {
+		return "cached(" + delegate + ", ttl=" + ttl + "s" + (perClient ? ", per client" : "") + ")";
+	}
+
+	private static class Key {
+		private final long userId;
+		private final String clientId;
+
+		Key(long userId, String clientId) {
+			this.userId = userId;
+			this.clientId = clientId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return userId == key.userId && Objects.equals(clientId, key.clientId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(userId, clientId);
+		}
+	}
+}
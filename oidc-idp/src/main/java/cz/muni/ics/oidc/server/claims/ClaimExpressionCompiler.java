@@ -0,0 +1,42 @@
+package cz.muni.ics.oidc.server.claims;
+
+import org.codehaus.commons.compiler.CompileException;
+import org.codehaus.janino.ExpressionEvaluator;
+
+/**
+ * Compiles Java expressions from configuration into classes implementing a given interface.
+ * The expressions are compiled by Janino once, calling them is then an ordinary method call.
+ * Janino supports Java 7 syntax without lambdas; generic types are erased, so values taken
+ * from collections need casts.
+ */
+public final class ClaimExpressionCompiler {
+
+	private static final String[] DEFAULT_IMPORTS = {
+			"java.util.*",
+			"com.fasterxml.jackson.databind.JsonNode",
+			"cz.muni.ics.oidc.models.*"
+	};
+
+	private ClaimExpressionCompiler() {
+	}
+
+	/**
+	 * Compiles expression into an implementation of an interface with a single method.
+	 *
+	 * @param expression Java expression, its type must match the return type of the method
+	 * @param type interface to implement
+	 * @param parameterNames names under which the expression sees the method parameters
+	 * @return instance of the interface evaluating the expression
+	 * @throws IllegalArgumentException when the expression cannot be compiled
+	 */
+	public static <T> T compile(String expression, Class<T> type, String... parameterNames) {
+		ExpressionEvaluator evaluator = new ExpressionEvaluator();
+		evaluator.setDefaultImports(DEFAULT_IMPORTS);
+		evaluator.setParentClassLoader(ClaimExpressionCompiler.class.getClassLoader());
+		try {
+			return type.cast(evaluator.createFastEvaluator(expression, type, parameterNames));
+		} catch (CompileException e) {
+			throw new IllegalArgumentException("cannot compile expression '" + expression + "': " + e.getMessage(), e);
+		}
+	}
+}
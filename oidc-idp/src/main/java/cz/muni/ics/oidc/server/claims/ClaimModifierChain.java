@@ -0,0 +1,68 @@
+package cz.muni.ics.oidc.server.claims;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies several modifiers one after another. Values of array claims are modified in a single pass,
+ * a new array is created only when some value changes and unchanged values are not copied.
+ */
+public class ClaimModifierChain extends ClaimModifier {
+
+	private final List<ClaimModifier> modifiers;
+
+	public ClaimModifierChain(List<ClaimModifier> modifiers) {
+		super(null);
+		this.modifiers = new ArrayList<>(modifiers);
+	}
+
+	@Override
+	public String modify(String value) {
+		for (ClaimModifier modifier : modifiers) {
+			value = modifier.modify(value);
+		}
+		return value;
+	}
+
+	/**
+	 * Modifies a string value or all strings in an array. The input is not changed.
+	 *
+	 * @param value claim value
+	 * @return modified value, or the same instance if nothing changed
+	 */
+	public JsonNode modify(JsonNode value) {
+		if (value.isTextual()) {
+			String original = value.asText();
+			String modified = modify(original);
+			return original.equals(modified) ? value : TextNode.valueOf(modified);
+		} else if (value.isArray()) {
+			ArrayNode result = null;
+			for (int i = 0; i < value.size(); i++) {
+				JsonNode item = value.get(i);
+				JsonNode modified = item.isTextual() ? modify(item) : item;
+				if (result == null && modified != item) {
+					//first change, take over the unchanged items
+					result = JsonNodeFactory.instance.arrayNode(value.size());
+					for (int j = 0; j < i; j++) {
+						result.add(value.get(j));
+					}
+				}
+				if (result != null) {
+					result.add(modified);
+				}
+			}
+			return result != null ? result : value;
+		}
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return modifiers.toString();
+	}
+}
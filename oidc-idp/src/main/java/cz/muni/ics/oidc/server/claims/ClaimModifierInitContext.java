@@ -11,13 +11,26 @@ public class ClaimModifierInitContext {
 
 	private final String propertyPrefix;
 	private final Properties properties;
+	private final ValueMemo valueMemo;
 
 	public ClaimModifierInitContext(String propertyPrefix, Properties properties) {
+		this(propertyPrefix, properties, new ValueMemo());
+	}
+
+	public ClaimModifierInitContext(String propertyPrefix, Properties properties, ValueMemo valueMemo) {
 		this.propertyPrefix = propertyPrefix;
 		this.properties = properties;
+		this.valueMemo = valueMemo;
 	}
 
 	public String getProperty(String suffix, String defaultValue) {
 		return properties.getProperty(propertyPrefix + "." + suffix, defaultValue);
 	}
+
+	/**
+	 * @return remembered results of group name conversions shared by all claims
+	 */
+	public ValueMemo getValueMemo() {
+		return valueMemo;
+	}
 }
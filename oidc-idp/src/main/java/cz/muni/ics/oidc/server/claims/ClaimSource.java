@@ -9,11 +9,27 @@ import com.fasterxml.jackson.databind.JsonNode;
  */
 public abstract class ClaimSource {
 
+	private final ClaimSourceRequirements requirements;
+
 	public ClaimSource(ClaimSourceInitContext ctx) {
+		this.requirements = ctx.getRequirements();
+	}
+
+	/**
+	 * @return data needed by this source, as declared through {@link ClaimSourceInitContext}
+	 */
+	public ClaimSourceRequirements getRequirements() {
+		return requirements;
 	}
 
 	public abstract JsonNode produceValue(ClaimSourceProduceContext pctx);
 
+	/**
+	 * Releases resources held by this source, called when the application shuts down.
+	 */
+	public void close() {
+	}
+
 	@Override
 	public String toString() {
 		return this.getClass().getName();
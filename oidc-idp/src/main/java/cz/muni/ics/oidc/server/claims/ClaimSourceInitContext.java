@@ -1,5 +1,9 @@
 package cz.muni.ics.oidc.server.claims;
 
+import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.Properties;
 
 /**
@@ -9,15 +13,107 @@ import java.util.Properties;
  */
 public class ClaimSourceInitContext {
 
+	private static final Logger log = LoggerFactory.getLogger(ClaimSourceInitContext.class);
+
 	private final String propertyPrefix;
 	private final Properties properties;
+	private final ClaimSourceRequirements requirements = new ClaimSourceRequirements();
+	private final JWTSigningAndValidationService jwtService;
+	private final String issuer;
+	private final ValueMemo valueMemo;
 
 	public ClaimSourceInitContext(String propertyPrefix, Properties properties) {
+		this(propertyPrefix, properties, null, null, new ValueMemo());
+	}
+
+	public ClaimSourceInitContext(String propertyPrefix, Properties properties, JWTSigningAndValidationService jwtService,
+								  String issuer, ValueMemo valueMemo) {
 		this.propertyPrefix = propertyPrefix;
 		this.properties = properties;
+		this.jwtService = jwtService;
+		this.issuer = issuer;
+		this.valueMemo = valueMemo;
 	}
 
 	public String getProperty(String suffix, String defaultValue) {
 		return properties.getProperty(propertyPrefix + "." + suffix, defaultValue);
 	}
+
+	/**
+	 * Gets numeric property, an invalid value is logged and the default value is used instead.
+	 *
+	 * @param suffix property name without the claim prefix
+	 * @param defaultValue value used when the property is missing or invalid
+	 * @param minValue smallest valid value
+	 */
+	public long getLongProperty(String suffix, long defaultValue, long minValue) {
+		String value = getProperty(suffix, null);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			long number = Long.parseLong(value.trim());
+			if (number >= minValue) {
+				return number;
+			}
+		} catch (NumberFormatException e) {
+			//logged below
+		}
+		log.error("property {}.{} has invalid value '{}', expected a number not less than {}, using {}",
+				propertyPrefix, suffix, value, minValue, defaultValue);
+		return defaultValue;
+	}
+
+	/**
+	 * Gets numeric property, see {@link #getLongProperty(String, long, long)}.
+	 */
+	public int getIntProperty(String suffix, int defaultValue, int minValue) {
+		long number = getLongProperty(suffix, defaultValue, minValue);
+		return number <= Integer.MAX_VALUE ? (int) number : defaultValue;
+	}
+
+	/**
+	 * Declares user attributes which the claim source reads from {@link ClaimSourceProduceContext#getRichUser()}.
+	 * A source which does not declare anything gets all user attributes.
+	 *
+	 * @param names attribute names, null and empty names are ignored
+	 */
+	public void requireUserAttributes(String... names) {
+		requirements.addUserAttributes(names);
+	}
+
+	/**
+	 * Declares Perun lookups which the claim source gets from {@link ClaimSourceProduceContext}.
+	 * They are then started in parallel with other lookups.
+	 *
+	 * @param lookups needed lookups
+	 */
+	public void requireLookups(ClaimSourceRequirements.Lookup... lookups) {
+		requirements.addLookups(lookups);
+	}
+
+	/**
+	 * @return service for signing JWTs issued by claim sources, or null if not available
+	 */
+	public JWTSigningAndValidationService getJwtService() {
+		return jwtService;
+	}
+
+	/**
+	 * @return issuer of this OIDC server
+	 */
+	public String getIssuer() {
+		return issuer;
+	}
+
+	/**
+	 * @return remembered results of group name conversions shared by all claims
+	 */
+	public ValueMemo getValueMemo() {
+		return valueMemo;
+	}
+
+	public ClaimSourceRequirements getRequirements() {
+		return requirements;
+	}
 }
@@ -1,9 +1,24 @@
 package cz.muni.ics.oidc.server.claims;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import cz.muni.ics.oidc.models.RichUser;
+import cz.muni.ics.oidc.server.claims.ClaimSourceRequirements.Lookup;
+import cz.muni.ics.oidc.server.connectors.Affiliation;
 import cz.muni.ics.oidc.server.connectors.PerunConnector;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
 public class ClaimSourceProduceContext {
 
 	private final long perunUserId;
@@ -11,13 +26,26 @@ public class ClaimSourceProduceContext {
 	private final RichUser richUser;
 	private final PerunConnector perunConnector;
 	private final ClientDetailsEntity client;
+	private final Executor executor;
+	private final Map<Lookup, LookupTask> lookups = new EnumMap<>(Lookup.class);
+	private final Map<Long, LookupTask> groupMemberships = new HashMap<>();
+	private Function<String, JsonNode> claimValues;
 
 	public ClaimSourceProduceContext(long perunUserId, String sub, RichUser richUser, PerunConnector perunConnector, ClientDetailsEntity client) {
+		this(perunUserId, sub, richUser, perunConnector, client, null);
+	}
+
+	/**
+	 * @param executor executor for starting lookups in parallel, or null for doing them on first use
+	 */
+	public ClaimSourceProduceContext(long perunUserId, String sub, RichUser richUser, PerunConnector perunConnector,
+									 ClientDetailsEntity client, Executor executor) {
 		this.perunUserId = perunUserId;
 		this.sub = sub;
 		this.richUser = richUser;
 		this.perunConnector = perunConnector;
 		this.client = client;
+		this.executor = executor;
 	}
 
 	public RichUser getRichUser() {
@@ -40,6 +68,103 @@ public class ClaimSourceProduceContext {
 		return client;
 	}
 
+	/**
+	 * Sets how values of other claims are obtained, see {@link #getClaimValue(String)}.
+	 */
+	public void setClaimValues(Function<String, JsonNode> claimValues) {
+		this.claimValues = claimValues;
+	}
+
+	/**
+	 * Gets value of another custom claim of the same user, produced only once per context.
+	 * The claim must be listed in property custom.claim.[claimName].dependsOn of the claim calling this method.
+	 *
+	 * @param claim name of the claim
+	 * @return value with modifiers applied, or null
+	 * @throws ClaimValueUnavailableException when the value failed, was not produced in time or the claim is not
+	 * a dependency, the calling claim then fails and is produced again when needed next time
+	 */
+	public JsonNode getClaimValue(String claim) {
+		return claimValues != null ? claimValues.apply(claim) : null;
+	}
+
+	/**
+	 * Starts the given lookups in parallel, so that their results are ready when a claim source needs them.
+	 *
+	 * @param needed lookups declared by claim sources
+	 */
+	public void prefetch(Collection<Lookup> needed) {
+		if (executor == null) {
+			return;
+		}
+		for (Lookup lookup : needed) {
+			lookup(lookup, true);
+		}
+	}
+
+	/**
+	 * Gets affiliations from user ext sources, each lookup is done only once per context.
+	 */
+	public List<Affiliation> getUserExtSourcesAffiliations() {
+		return getLookupResult(Lookup.USER_EXT_SOURCES_AFFILIATIONS);
+	}
+
+	/**
+	 * Gets affiliations from groups of the user, each lookup is done only once per context.
+	 */
+	public List<Affiliation> getGroupAffiliations() {
+		return getLookupResult(Lookup.GROUP_AFFILIATIONS);
+	}
+
+	/**
+	 * Finds out whether the user is a member of the group, each group is checked only once per context.
+	 */
+	public boolean isUserInGroup(long groupId) {
+		LookupTask task;
+		synchronized (this) {
+			task = groupMemberships.computeIfAbsent(groupId,
+					id -> new LookupTask(() -> perunConnector.isUserInGroup(perunUserId, id)));
+		}
+		return getResult(task);
+	}
+
+	private <T> T getLookupResult(Lookup lookup) {
+		return getResult(lookup(lookup, false));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T getResult(LookupTask task) {
+		try {
+			return (T) task.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+		}
+	}
+
+	private synchronized LookupTask lookup(Lookup lookup, boolean async) {
+		LookupTask task = lookups.get(lookup);
+		if (task == null) {
+			task = new LookupTask(lookupSupplier(lookup));
+			lookups.put(lookup, task);
+			if (async) {
+				executor.execute(task::run);
+			}
+		}
+		return task;
+	}
+
+	private Supplier<?> lookupSupplier(Lookup lookup) {
+		switch (lookup) {
+			case USER_EXT_SOURCES_AFFILIATIONS:
+				return () -> perunConnector.getUserExtSourcesAffiliations(perunUserId);
+			case GROUP_AFFILIATIONS:
+				return () -> perunConnector.getGroupAffiliations(perunUserId);
+			default:
+				throw new IllegalArgumentException("unknown lookup " + lookup);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "ClaimSourceProduceContext{" +
@@ -47,4 +172,33 @@ public class ClaimSourceProduceContext {
 				", sub='" + sub + '\'' +
 				'}';
 	}
+
+	/**
+	 * Lookup which runs only once, either on the executor or in the first thread which needs its result.
+	 * Waiting for a lookup queued behind the waiting claim on the same executor would never end.
+	 */
+	private static class LookupTask {
+		private final Supplier<?> supplier;
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final CompletableFuture<Object> result = new CompletableFuture<>();
+
+		LookupTask(Supplier<?> supplier) {
+			this.supplier = supplier;
+		}
+
+		void run() {
+			if (started.compareAndSet(false, true)) {
+				try {
+					result.complete(supplier.get());
+				} catch (RuntimeException ex) {
+					result.completeExceptionally(ex);
+				}
+			}
+		}
+
+		Object join() {
+			run();
+			return result.join();
+		}
+	}
 }
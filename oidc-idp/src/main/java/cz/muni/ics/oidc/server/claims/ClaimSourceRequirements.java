@@ -0,0 +1,65 @@
+package cz.muni.ics.oidc.server.claims;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Data which a claim source needs for producing values, declared in its constructor
+ * through {@link ClaimSourceInitContext}. Used for fetching the data of all claims together
+ * before they are produced.
+ */
+public class ClaimSourceRequirements {
+
+	/**
+	 * Lookups in Perun which claim sources can get from {@link ClaimSourceProduceContext}.
+	 */
+	public enum Lookup {
+		/** {@link ClaimSourceProduceContext#getUserExtSourcesAffiliations()} */
+		USER_EXT_SOURCES_AFFILIATIONS,
+		/** {@link ClaimSourceProduceContext#getGroupAffiliations()} */
+		GROUP_AFFILIATIONS
+	}
+
+	private final Set<String> userAttributes = new LinkedHashSet<>();
+	private final Set<Lookup> lookups = EnumSet.noneOf(Lookup.class);
+	private boolean declared;
+
+	void addUserAttributes(String... names) {
+		for (String name : names) {
+			if (name != null && !name.isEmpty()) {
+				userAttributes.add(name);
+			}
+		}
+		declared = true;
+	}
+
+	void addLookups(Lookup... lookups) {
+		Collections.addAll(this.lookups, lookups);
+		declared = true;
+	}
+
+	/**
+	 * @return true if the source declared its requirements, otherwise it may need any user attribute
+	 */
+	public boolean isDeclared() {
+		return declared;
+	}
+
+	/**
+	 * @return names of user attributes read from {@link ClaimSourceProduceContext#getRichUser()}
+	 */
+	public Set<String> getUserAttributes() {
+		return Collections.unmodifiableSet(userAttributes);
+	}
+
+	public Set<Lookup> getLookups() {
+		return Collections.unmodifiableSet(lookups);
+	}
+
+	@Override
+	public String toString() {
+		return declared ? "attributes=" + userAttributes + ", lookups=" + lookups : "undeclared";
+	}
+}
@@ -0,0 +1,13 @@
+package cz.muni.ics.oidc.server.claims;
+
+/**
+ * Thrown when a claim source asks for the value of another claim which could not be produced,
+ * e.g. it failed or was not produced in time. The asking claim then fails too, so that its value
+ * produced from incomplete inputs is not used as final.
+ */
+public class ClaimValueUnavailableException extends RuntimeException {
+
+	public ClaimValueUnavailableException(String message) {
+		super(message);
+	}
+}
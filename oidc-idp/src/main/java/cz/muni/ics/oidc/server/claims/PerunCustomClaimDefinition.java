@@ -1,24 +1,60 @@
 package cz.muni.ics.oidc.server.claims;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Keeps definition of a custom user claim.
  * <ul>
  *     <li><b>scope</b> - which scope must be granted to include the claim</li>
  *     <li><b>claim</b> - name of the claim</li>
  *     <li><b>claimSource</b> - instance of a class implementing {@link ClaimSource}</li>
- *     <li><b>claimModifier</b> - instance of a class implementing {@link ClaimModifier}</li>
+ *     <li><b>claimModifier</b> - chain of instances of classes implementing {@link ClaimModifier}</li>
+ *     <li><b>timeout</b> - how long to wait for the value in milliseconds, 0 means no limit</li>
+ *     <li><b>onTimeout</b> - what to use when the value is not produced in time</li>
+ *     <li><b>maxAge</b> - how long a produced value can be used in milliseconds, 0 means as long as the UserInfo</li>
+ *     <li><b>dependsOn</b> - names of claims whose values the claim source uses</li>
+ *     <li><b>maxElements</b> - maximum number of values of an array claim in tokens and introspection, 0 means no limit</li>
+ *     <li><b>prefixes</b> - only values of an array claim starting with one of them are put into tokens and introspection,
+ *     can differ per client</li>
+ *     <li><b>userinfoOnly</b> - the claim is not put into ID tokens and introspection responses</li>
  * </ul>
  * @see ClaimModifier
  * @author Martin Kuba makub@ics.muni.cz
  */
 public class PerunCustomClaimDefinition {
 
+	private final static Logger log = LoggerFactory.getLogger(PerunCustomClaimDefinition.class);
+
 	private String scope;
 	private String claim;
 	private ClaimSource claimSource;
-	private ClaimModifier claimModifier;
+	private ClaimModifierChain claimModifier;
+	private long timeout;
+	private OnTimeout onTimeout = OnTimeout.OMIT;
+	private Cache<ValueKey, JsonNode> lastValues;
+	private long maxAge;
+	private List<String> dependsOn = Collections.emptyList();
+	private int maxElements;
+	private List<String> prefixes;
+	private Map<String, List<String>> clientPrefixes = Collections.emptyMap();
+	private boolean userinfoOnly;
+	private final AtomicLong trimmedValues = new AtomicLong();
+	private final AtomicLong trimmedElements = new AtomicLong();
 
-	public PerunCustomClaimDefinition(String scope, String claim, ClaimSource claimSource, ClaimModifier claimModifier) {
+	public PerunCustomClaimDefinition(String scope, String claim, ClaimSource claimSource, ClaimModifierChain claimModifier) {
 		this.scope = scope;
 		this.claim = claim;
 		this.claimSource = claimSource;
@@ -37,8 +73,203 @@ public class PerunCustomClaimDefinition {
 		return claimSource;
 	}
 
-	public ClaimModifier getClaimModifier() {
+	public ClaimModifierChain getClaimModifier() {
 		return claimModifier;
 	}
 
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	public void setMaxAge(long maxAge) {
+		this.maxAge = maxAge;
+	}
+
+	public List<String> getDependsOn() {
+		return dependsOn;
+	}
+
+	public void setDependsOn(List<String> dependsOn) {
+		this.dependsOn = dependsOn;
+	}
+
+	public boolean isUserinfoOnly() {
+		return userinfoOnly;
+	}
+
+	public void setUserinfoOnly(boolean userinfoOnly) {
+		this.userinfoOnly = userinfoOnly;
+	}
+
+	/**
+	 * Sets limits for values of array claims.
+	 *
+	 * @param maxElements maximum number of values, 0 means no limit
+	 * @param prefixes prefixes of values to keep, null means all values
+	 * @param clientPrefixes prefixes of values to keep for individual clients, override the prefixes
+	 */
+	public void setSizeLimits(int maxElements, List<String> prefixes, Map<String, List<String>> clientPrefixes) {
+		this.maxElements = maxElements;
+		this.prefixes = prefixes;
+		this.clientPrefixes = clientPrefixes;
+	}
+
+	/**
+	 * @return true if values of the claim can be limited by {@link #limitSize(JsonElement, String)}
+	 */
+	public boolean hasSizeLimits() {
+		return maxElements > 0 || prefixes != null || !clientPrefixes.isEmpty();
+	}
+
+	/**
+	 * Removes values of an array claim not allowed for the client and values over the maximum number.
+	 * It is used for tokens and introspection, the UserInfo endpoint and other claims get all values.
+	 *
+	 * @param value claim value, it is not changed
+	 * @param clientId client which gets the value, or null
+	 * @return the same value when nothing is removed, otherwise a new array
+	 */
+	public JsonElement limitSize(JsonElement value, String clientId) {
+		if (value == null || !value.isJsonArray()) {
+			return value;
+		}
+		JsonArray array = value.getAsJsonArray();
+		List<String> allowedPrefixes = clientId != null ? clientPrefixes.getOrDefault(clientId, prefixes) : prefixes;
+		if (allowedPrefixes == null && (maxElements <= 0 || array.size() <= maxElements)) {
+			return value;
+		}
+		JsonArray result = new JsonArray();
+		for (JsonElement item : array) {
+			if (maxElements > 0 && result.size() >= maxElements) {
+				break;
+			}
+			if (allowedPrefixes == null || (isString(item) && startsWithAny(item.getAsString(), allowedPrefixes))) {
+				result.add(item);
+			}
+		}
+		int removed = array.size() - result.size();
+		if (removed == 0) {
+			return value;
+		}
+		trimmedValues.incrementAndGet();
+		trimmedElements.addAndGet(removed);
+		log.debug("removed {} of {} values of claim {} for client {}", removed, array.size(), claim, clientId);
+		return result;
+	}
+
+	private static boolean isString(JsonElement item) {
+		return item.isJsonPrimitive() && item.getAsJsonPrimitive().isString();
+	}
+
+	/**
+	 * @return how many times values were removed from the claim by {@link #limitSize(JsonElement, String)}
+	 */
+	public long getTrimmedValues() {
+		return trimmedValues.get();
+	}
+
+	/**
+	 * @return how many values were removed from the claim in total
+	 */
+	public long getTrimmedElements() {
+		return trimmedElements.get();
+	}
+
+	private static boolean startsWithAny(String value, List<String> prefixes) {
+		for (String prefix : prefixes) {
+			if (value.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public OnTimeout getOnTimeout() {
+		return onTimeout;
+	}
+
+	/**
+	 * Sets deadline for producing the claim value.
+	 *
+	 * @param timeout milliseconds, 0 means no limit
+	 * @param onTimeout what to use when the value is not produced in time
+	 * @param lastValuesMaxSize how many users and clients to remember last values for, used with {@link OnTimeout#CACHED}
+	 */
+	public void setTimeout(long timeout, OnTimeout onTimeout, long lastValuesMaxSize) {
+		this.timeout = timeout;
+		this.onTimeout = onTimeout;
+		this.lastValues = onTimeout == OnTimeout.CACHED ? CacheBuilder.newBuilder().maximumSize(lastValuesMaxSize).build() : null;
+	}
+
+	/**
+	 * Remembers the produced value for use when producing of the next value times out.
+	 * Values are kept per client, because claim sources and modifiers may produce different values for each client.
+	 *
+	 * @param perunUserId Perun user id
+	 * @param clientId client_id or null
+	 * @param value produced value
+	 */
+	public void rememberValue(long perunUserId, String clientId, JsonNode value) {
+		if (lastValues != null && value != null) {
+			lastValues.put(new ValueKey(perunUserId, clientId), value);
+		}
+	}
+
+	/**
+	 * Gets value to be used when the value was not produced in time.
+	 *
+	 * @param perunUserId Perun user id
+	 * @param clientId client_id or null
+	 * @return last value, JSON null or null for omitting the claim, depending on the onTimeout policy
+	 */
+	public JsonNode getTimeoutValue(long perunUserId, String clientId) {
+		switch (onTimeout) {
+			case CACHED:
+				return lastValues.getIfPresent(new ValueKey(perunUserId, clientId));
+			case NULL:
+				return NullNode.getInstance();
+			default:
+				return null;
+		}
+	}
+
+	private static class ValueKey {
+		private final long perunUserId;
+		private final String clientId;
+
+		ValueKey(long perunUserId, String clientId) {
+			this.perunUserId = perunUserId;
+			this.clientId = clientId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			ValueKey that = (ValueKey) o;
+			return perunUserId == that.perunUserId && Objects.equals(clientId, that.clientId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(perunUserId, clientId);
+		}
+	}
+
+	/**
+	 * What to use as claim value when the value is not produced in time.
+	 */
+	public enum OnTimeout {
+		/** claim is not included */
+		OMIT,
+		/** last value produced for the user and client, or not included if there is none */
+		CACHED,
+		/** claim is included with null value */
+		NULL
+	}
+
 }
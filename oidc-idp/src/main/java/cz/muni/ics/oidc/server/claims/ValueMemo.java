@@ -0,0 +1,126 @@
+package cz.muni.ics.oidc.server.claims;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.net.UrlEscapers;
+import cz.muni.ics.oidc.server.caches.InvalidatableCache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Remembers group names converted to AARC format, which repeat for many users. Values are keyed by
+ * the prefix and authority configured for the converting modifier or source, and the group name.
+ * Results are interned, so that cached UserInfo objects of different users share the same String instances.
+ */
+public class ValueMemo implements InvalidatableCache {
+
+	public static final long DEFAULT_MAXIMUM_SIZE = 100000;
+
+	private final Interner<String> interner = Interners.newWeakInterner();
+	private Cache<Key, String> table = buildTable(DEFAULT_MAXIMUM_SIZE);
+
+	/**
+	 * Replaces the table by an empty one with the given maximum number of values.
+	 */
+	public void setMaximumSize(long maximumSize) {
+		table = buildTable(maximumSize);
+	}
+
+	/**
+	 * Converts group name to AARC format, computing it only if it is not remembered.
+	 *
+	 * @param prefix prefix of the AARC value, e.g. urn:geant:cesnet.cz:group:
+	 * @param authority authority appended after #
+	 * @param groupName name of the group
+	 * @return AARC formatted group name
+	 */
+	public String groupNameAARC(String prefix, String authority, String groupName) {
+		if (groupName == null) {
+			return formatGroupNameAARC(prefix, authority, null);
+		}
+		Key key = new Key(prefix, authority, groupName);
+		String value = table.getIfPresent(key);
+		if (value == null) {
+			value = interner.intern(formatGroupNameAARC(prefix, authority, groupName));
+			table.put(key, value);
+		}
+		return value;
+	}
+
+	private static String formatGroupNameAARC(String prefix, String authority, String groupName) {
+		return prefix + UrlEscapers.urlPathSegmentEscaper().escape(groupName) + "#" + authority;
+	}
+
+	/**
+	 * @return hit rate and size of the table
+	 */
+	public Map<String, Object> getStats() {
+		Cache<Key, String> t = table;
+		CacheStats stats = t.stats();
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("size", t.size());
+		result.put("hitCount", stats.hitCount());
+		result.put("missCount", stats.missCount());
+		result.put("hitRate", stats.hitRate());
+		result.put("evictionCount", stats.evictionCount());
+		return result;
+	}
+
+	@Override
+	public void invalidateUser(long userId) {
+		//values do not depend on users
+	}
+
+	@Override
+	public void invalidateFacility(long facilityId) {
+		//values do not depend on facilities
+	}
+
+	@Override
+	public void invalidateGroup(long groupId) {
+		//values depend only on group names, a renamed group gets a new entry
+	}
+
+	@Override
+	public void invalidateAll() {
+		table.invalidateAll();
+	}
+
+	private static Cache<Key, String> buildTable(long maximumSize) {
+		return CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.recordStats()
+				.build();
+	}
+
+	private static class Key {
+		private final String prefix;
+		private final String authority;
+		private final String groupName;
+
+		Key(String prefix, String authority, String groupName) {
+			this.prefix = prefix;
+			this.authority = authority;
+			this.groupName = groupName;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			Key key = (Key) o;
+			return Objects.equals(prefix, key.prefix) && Objects.equals(authority, key.authority)
+					&& groupName.equals(key.groupName);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(prefix, authority, groupName);
+		}
+	}
+}
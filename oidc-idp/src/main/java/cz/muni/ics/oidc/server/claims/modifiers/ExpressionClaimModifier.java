@@ -0,0 +1,47 @@
+package cz.muni.ics.oidc.server.claims.modifiers;
+
+import cz.muni.ics.oidc.server.claims.ClaimExpressionCompiler;
+import cz.muni.ics.oidc.server.claims.ClaimModifier;
+import cz.muni.ics.oidc.server.claims.ClaimModifierInitContext;
+
+/**
+ * Modifier changing each value by a Java expression, which is compiled at startup.
+ * The expression sees the original value as String variable <i>value</i> and must return a String,
+ * e.g. <code>value.toLowerCase().replace('.', '_')</code>.
+ *
+ * Configuration (replace [claimName] with the name of the claim):
+ * <ul>
+ *     <li><b>custom.claim.[claimName].modifierExpression</b> - Java expression, named like modifierClass
+ *         so that it does not clash with the expression of {@link cz.muni.ics.oidc.server.claims.sources.ExpressionClaimSource};
+ *         a modifier in a list is configured by custom.claim.[claimName].modifier.[name].modifierExpression</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+public class ExpressionClaimModifier extends ClaimModifier {
+
+	private final String expressionText;
+	private final Expression expression;
+
+	/**
+	 * Interface implemented by the compiled expression.
+	 */
+	public interface Expression {
+		String modify(String value);
+	}
+
+	public ExpressionClaimModifier(ClaimModifierInitContext ctx) {
+		super(ctx);
+		expressionText = ctx.getProperty("modifierExpression", "value");
+		expression = ClaimExpressionCompiler.compile(expressionText, Expression.class, "value");
+	}
+
+	@Override
+	public String modify(String value) {
+		return expression.modify(value);
+	}
+
+	@Override
+	public String toString() {
+		return "ExpressionClaimModifier " + expressionText;
+	}
+}
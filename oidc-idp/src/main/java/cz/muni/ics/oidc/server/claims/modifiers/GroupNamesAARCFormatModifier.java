@@ -1,8 +1,8 @@
 package cz.muni.ics.oidc.server.claims.modifiers;
 
-import com.google.common.net.UrlEscapers;
 import cz.muni.ics.oidc.server.claims.ClaimModifier;
 import cz.muni.ics.oidc.server.claims.ClaimModifierInitContext;
+import cz.muni.ics.oidc.server.claims.ValueMemo;
 
 /**
  * GroupName to AARC Format modifier. Converts groupName values to AARC format.
@@ -14,19 +14,20 @@ public class GroupNamesAARCFormatModifier extends ClaimModifier {
 
 	private String prefix;
 	private String authority;
+	private ValueMemo memo;
 
 	public GroupNamesAARCFormatModifier(ClaimModifierInitContext ctx) {
 		super(ctx);
 		prefix = ctx.getProperty("prefix", "urn:geant:cesnet.cz:group:");
 		authority = ctx.getProperty("authority", "perun.cesnet.cz");
+		memo = ctx.getValueMemo();
 	}
 
 	@Override
 	public String modify(String value) {
-		return prefix + UrlEscapers.urlPathSegmentEscaper().escape(value) + "#" + authority;
+		return memo.groupNameAARC(prefix, authority, value);
 	}
 
-
 	@Override
 	public String toString() {
 		return "GroupNamesAARCFormatModifier to " + prefix + "<GROUP>#" + authority;
@@ -0,0 +1,62 @@
+package cz.muni.ics.oidc.server.claims.sources;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import cz.muni.ics.oidc.models.RichUser;
+import cz.muni.ics.oidc.server.claims.ClaimExpressionCompiler;
+import cz.muni.ics.oidc.server.claims.ClaimSource;
+import cz.muni.ics.oidc.server.claims.ClaimSourceInitContext;
+import cz.muni.ics.oidc.server.claims.ClaimSourceProduceContext;
+
+/**
+ * Source producing the claim value by a Java expression, which is compiled at startup.
+ * The expression can use variables <i>user</i> (RichUser with the listed attributes), <i>sub</i> and <i>clientId</i>.
+ * It can return JsonNode, String, Number, Boolean, a Collection or a Map, null means the claim is omitted.
+ *
+ * Configuration (replace [claimName] with the name of the claim):
+ * <ul>
+ *     <li><b>custom.claim.[claimName].expression</b> - Java expression, e.g.
+ *         <code>user.getAttributeValue("urn:perun:user:attribute-def:core:firstName") + "@" + clientId</code></li>
+ *     <li><b>custom.claim.[claimName].attributes</b> - comma separated names of user attributes used by the expression</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+public class ExpressionClaimSource extends ClaimSource {
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final String expressionText;
+	private final Expression expression;
+
+	/**
+	 * Interface implemented by the compiled expression.
+	 */
+	public interface Expression {
+		Object evaluate(RichUser user, String sub, String clientId);
+	}
+
+	public ExpressionClaimSource(ClaimSourceInitContext ctx) {
+		super(ctx);
+		expressionText = ctx.getProperty("expression", "null");
+		String attributes = ctx.getProperty("attributes", "").trim();
+		if (!attributes.isEmpty()) {
+			ctx.requireUserAttributes(attributes.split("\\s*,\\s*"));
+		}
+		expression = ClaimExpressionCompiler.compile(expressionText, Expression.class, "user", "sub", "clientId");
+	}
+
+	@Override
+	public JsonNode produceValue(ClaimSourceProduceContext pctx) {
+		String clientId = pctx.getClient() != null ? pctx.getClient().getClientId() : null;
+		Object value = expression.evaluate(pctx.getRichUser(), pctx.getSub(), clientId);
+		if (value == null || value instanceof JsonNode) {
+			return (JsonNode) value;
+		}
+		return mapper.valueToTree(value);
+	}
+
+	@Override
+	public String toString() {
+		return "expression " + expressionText;
+	}
+}
@@ -21,6 +21,7 @@ public class ExtractValuesByDomainSource extends ClaimSource {
 		super(ctx);
 		domain = ctx.getProperty("extractByDomain", null);
 		attributeName = ctx.getProperty("attributeName", null);
+		ctx.requireUserAttributes(attributeName);
 	}
 
 	@Override
@@ -3,13 +3,15 @@ package cz.muni.ics.oidc.server.claims.sources;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.google.common.net.UrlEscapers;
 import cz.muni.ics.oidc.server.claims.ClaimSource;
 import cz.muni.ics.oidc.server.claims.ClaimSourceInitContext;
 import cz.muni.ics.oidc.server.claims.ClaimSourceProduceContext;
+import cz.muni.ics.oidc.server.claims.ValueMemo;
 
 /**
- * This source converts groupNames to AARC format and joins them with eduPersonEntitlement
+ * This source converts groupNames to AARC format and joins them with eduPersonEntitlement.
+ * When property groupNamesClaim names another claim already producing group names in AARC format
+ * (listed also in dependsOn), its values are used instead of formatting the groupNames attribute again.
  *
  * @author Dominik Baránek 0Baranek.dominik0@gmail.com
  */
@@ -19,6 +21,8 @@ public class JoinGroupNamesAndEduPersonEntitlementSource extends ClaimSource {
 	private String eduPersonEntitlement;
 	private String prefix;
 	private String authority;
+	private String groupNamesClaim;
+	private ValueMemo memo;
 
 	public JoinGroupNamesAndEduPersonEntitlementSource(ClaimSourceInitContext ctx) {
 		super(ctx);
@@ -26,23 +30,31 @@ public class JoinGroupNamesAndEduPersonEntitlementSource extends ClaimSource {
 		eduPersonEntitlement = ctx.getProperty("eduPersonEntitlement", null);
 		prefix = ctx.getProperty("prefix", null);
 		authority = ctx.getProperty("authority", null);
+		groupNamesClaim = ctx.getProperty("groupNamesClaim", null);
+		ctx.requireUserAttributes(groupNamesClaim == null ? groupNames : null, eduPersonEntitlement);
+		memo = ctx.getValueMemo();
 	}
 
 	@Override
 	public JsonNode produceValue(ClaimSourceProduceContext pctx) {
 
-		JsonNode groupNamesJson = pctx.getRichUser().getJson(groupNames);
+		JsonNode groupNamesJson = groupNamesClaim == null ? pctx.getRichUser().getJson(groupNames) : null;
 		JsonNode eduPersonEntitlementJson = pctx.getRichUser().getJson(eduPersonEntitlement);
 
 		JsonNodeFactory factory = JsonNodeFactory.instance;
 		ArrayNode result = new ArrayNode(factory);
 
-		if (groupNamesJson != null) {
+		if (groupNamesClaim != null) {
+			JsonNode formatted = pctx.getClaimValue(groupNamesClaim);
+			if (formatted != null && formatted.isArray()) {
+				result.addAll((ArrayNode) formatted);
+			}
+		} else if (groupNamesJson != null) {
 			ArrayNode groupNamesArrayNode = (ArrayNode) groupNamesJson;
 
 			for (int i = 0; i < groupNamesArrayNode.size(); i++) {
 				String value = groupNamesArrayNode.get(i).textValue();
-				value = prefix + UrlEscapers.urlPathSegmentEscaper().escape(value) + "#" + authority;
+				value = memo.groupNameAARC(prefix, authority, value);
 				result.add(value);
 			}
 		}
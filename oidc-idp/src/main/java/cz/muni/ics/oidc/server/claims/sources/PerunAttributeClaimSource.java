@@ -13,6 +13,7 @@ public class PerunAttributeClaimSource extends ClaimSource {
 	public PerunAttributeClaimSource(ClaimSourceInitContext ctx) {
 		super(ctx);
 		attributeName = ctx.getProperty("attribute", "");
+		ctx.requireUserAttributes(attributeName);
 	}
 
 	@Override
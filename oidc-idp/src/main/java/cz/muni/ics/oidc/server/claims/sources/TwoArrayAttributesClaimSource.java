@@ -20,6 +20,7 @@ public class TwoArrayAttributesClaimSource extends ClaimSource {
 		super(ctx);
 		attribute1Name = ctx.getProperty("attribute1", "");
 		attribute2Name = ctx.getProperty("attribute2", "");
+		ctx.requireUserAttributes(attribute1Name, attribute2Name);
 	}
 
 	@Override
@@ -37,6 +37,15 @@ public interface PerunConnector {
 	 */
 	RichUser getUserAttributes(Long userId);
 
+	/**
+	 * Gets only the listed attributes of a user.
+	 *
+	 * @param userId identifier of the user
+	 * @param attributeNames names of attributes
+	 * @return RichUser with the found attributes
+	 */
+	RichUser getUserAttributes(Long userId, List<String> attributeNames);
+
 	/**
 	 * Fetch facility registered in Perun for the given OIDC client_id.
 	 *
@@ -118,4 +127,11 @@ public interface PerunConnector {
 	 * @return list of values of attribute affiliation
 	 */
 	List<Affiliation> getGroupAffiliations(Long userId);
+
+	/**
+	 * Gets users who are members of the group.
+	 * @param groupId id of group
+	 * @return ids of users
+	 */
+	List<Long> getGroupMemberUserIds(Long groupId);
 }
@@ -0,0 +1,196 @@
+package cz.muni.ics.oidc.server.connectors.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import cz.muni.ics.oidc.models.Facility;
+import cz.muni.ics.oidc.models.Group;
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.models.PerunUser;
+import cz.muni.ics.oidc.models.RichUser;
+import cz.muni.ics.oidc.models.Vo;
+import cz.muni.ics.oidc.server.PerunPrincipal;
+import cz.muni.ics.oidc.server.caches.InvalidatableCache;
+import cz.muni.ics.oidc.server.connectors.Affiliation;
+import cz.muni.ics.oidc.server.connectors.PerunConnector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches facility data which are read on every authorization and change rarely,
+ * i.e. facilities by client_id and facility attributes. Other calls are passed to the delegate connector.
+ */
+public class PerunConnectorCaching implements PerunConnector, InvalidatableCache {
+
+	private final static Logger log = LoggerFactory.getLogger(PerunConnectorCaching.class);
+
+	private PerunConnector delegate;
+	private long facilityCacheTtlSeconds = 60;
+	private long facilityCacheMaxSize = 1000;
+
+	private Cache<String, Optional<Facility>> facilitiesByClientId;
+	private Cache<FacilityAttributesKey, Map<String, PerunAttribute>> facilityAttributes;
+
+	public void setDelegate(PerunConnector delegate) {
+		this.delegate = delegate;
+	}
+
+	public void setFacilityCacheTtlSeconds(long facilityCacheTtlSeconds) {
+		this.facilityCacheTtlSeconds = facilityCacheTtlSeconds;
+	}
+
+	public void setFacilityCacheMaxSize(long facilityCacheMaxSize) {
+		this.facilityCacheMaxSize = facilityCacheMaxSize;
+	}
+
+	@PostConstruct
+	public void postInit() {
+		facilitiesByClientId = CacheBuilder.newBuilder()
+				.maximumSize(facilityCacheMaxSize)
+				.expireAfterWrite(facilityCacheTtlSeconds, TimeUnit.SECONDS)
+				.build();
+		facilityAttributes = CacheBuilder.newBuilder()
+				.maximumSize(facilityCacheMaxSize)
+				.expireAfterWrite(facilityCacheTtlSeconds, TimeUnit.SECONDS)
+				.build();
+		log.info("caching facilities for {} seconds", facilityCacheTtlSeconds);
+	}
+
+	@Override
+	public Facility getFacilityByClientId(String clientId) {
+		log.trace("getFacilityByClientId({})", clientId);
+		try {
+			return facilitiesByClientId.get(clientId, () -> Optional.ofNullable(delegate.getFacilityByClientId(clientId))).orElse(null);
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw new RuntimeException("cannot get facility for client " + clientId, e.getCause());
+		}
+	}
+
+	@Override
+	public Map<String, PerunAttribute> getFacilityAttributes(Facility facility, List<String> attributeNames) {
+		log.trace("getFacilityAttributes({}, {})", facility, attributeNames);
+		FacilityAttributesKey key = new FacilityAttributesKey(facility.getId(), attributeNames);
+		try {
+			return facilityAttributes.get(key, () -> Collections.unmodifiableMap(delegate.getFacilityAttributes(facility, attributeNames)));
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			throw new RuntimeException("cannot get attributes of facility " + facility, e.getCause());
+		}
+	}
+
+	@Override
+	public PerunUser getPreauthenticatedUserId(PerunPrincipal perunPrincipal) {
+		return delegate.getPreauthenticatedUserId(perunPrincipal);
+	}
+
+	@Override
+	public RichUser getUserAttributes(Long userId) {
+		return delegate.getUserAttributes(userId);
+	}
+
+	@Override
+	public RichUser getUserAttributes(Long userId, List<String> attributeNames) {
+		return delegate.getUserAttributes(userId, attributeNames);
+	}
+
+	@Override
+	public boolean isMembershipCheckEnabledOnFacility(Facility facility) {
+		return delegate.isMembershipCheckEnabledOnFacility(facility);
+	}
+
+	@Override
+	public boolean canUserAccessBasedOnMembership(Facility facility, Long userId) {
+		return delegate.canUserAccessBasedOnMembership(facility, userId);
+	}
+
+	@Override
+	public Map<Vo, List<Group>> getGroupsForRegistration(Facility facility, Long userId, List<String> voShortNames) {
+		return delegate.getGroupsForRegistration(facility, userId, voShortNames);
+	}
+
+	@Override
+	public boolean groupWhereCanRegisterExists(Facility facility) {
+		return delegate.groupWhereCanRegisterExists(facility);
+	}
+
+	@Override
+	public boolean isUserInGroup(Long userId, Long groupId) {
+		return delegate.isUserInGroup(userId, groupId);
+	}
+
+	@Override
+	public PerunAttribute getUserAttribute(Long userId, String attributeName) {
+		return delegate.getUserAttribute(userId, attributeName);
+	}
+
+	@Override
+	public List<Affiliation> getUserExtSourcesAffiliations(Long userId) {
+		return delegate.getUserExtSourcesAffiliations(userId);
+	}
+
+	@Override
+	public List<Affiliation> getGroupAffiliations(Long userId) {
+		return delegate.getGroupAffiliations(userId);
+	}
+
+	@Override
+	public List<Long> getGroupMemberUserIds(Long groupId) {
+		return delegate.getGroupMemberUserIds(groupId);
+	}
+
+	@Override
+	public void invalidateUser(long userId) {
+		//no user data are cached
+	}
+
+	@Override
+	public void invalidateFacility(long facilityId) {
+		Long id = facilityId;
+		facilitiesByClientId.asMap().values().removeIf(f -> f.isPresent() && id.equals(f.get().getId()));
+		facilityAttributes.asMap().keySet().removeIf(key -> id.equals(key.facilityId));
+	}
+
+	@Override
+	public void invalidateGroup(long groupId) {
+		//cached facilities and their attributes do not depend on groups
+	}
+
+	@Override
+	public void invalidateAll() {
+		facilitiesByClientId.invalidateAll();
+		facilityAttributes.invalidateAll();
+	}
+
+	private static class FacilityAttributesKey {
+		private final Long facilityId;
+		private final List<String> attributeNames;
+
+		FacilityAttributesKey(Long facilityId, List<String> attributeNames) {
+			this.facilityId = facilityId;
+			this.attributeNames = new ArrayList<>(attributeNames);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			FacilityAttributesKey that = (FacilityAttributesKey) o;
+			return Objects.equals(facilityId, that.facilityId) &&
+					Objects.equals(attributeNames, that.attributeNames);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(facilityId, attributeNames);
+		}
+	}
+}
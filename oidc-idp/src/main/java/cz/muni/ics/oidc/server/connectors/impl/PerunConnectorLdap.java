@@ -144,6 +144,14 @@ public class PerunConnectorLdap implements PerunConnector, DisposableBean {
 		return richUser;
 	}
 
+	/**
+	 * Fetch user identified by userId from Perun. LDAP entry is read whole, so all attributes are returned.
+	 */
+	@Override
+	public RichUser getUserAttributes(Long userId, List<String> attributeNames) {
+		return getUserAttributes(userId);
+	}
+
 	@Override
 	public Facility getFacilityByClientId(String clientId) {
 		log.trace("getFacilityByClientId({})", clientId);
@@ -231,4 +239,10 @@ public class PerunConnectorLdap implements PerunConnector, DisposableBean {
 		//TODO: implement
 		return fallbackConnector.getGroupAffiliations(userId);
 	}
+
+	@Override
+	public List<Long> getGroupMemberUserIds(Long groupId) {
+		//TODO: implement
+		return fallbackConnector.getGroupMemberUserIds(groupId);
+	}
 }
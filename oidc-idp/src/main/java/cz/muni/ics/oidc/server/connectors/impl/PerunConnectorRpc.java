@@ -152,6 +152,18 @@ public class PerunConnectorRpc implements PerunConnector {
 		return res;
 	}
 
+	@Override
+	public RichUser getUserAttributes(Long userId, List<String> attributeNames) {
+		log.trace("getUserAttributes({}, {})", userId, attributeNames);
+		Map<String, Object> map = new LinkedHashMap<>();
+		map.put("user", userId);
+		map.put("attrNames", attributeNames);
+
+		RichUser res = Mapper.mapRichUser(userId, makeRpcCall("/attributesManager/getAttributes", map));
+		log.trace("getUserAttributes({}, {}) returns: {}", userId, attributeNames, res);
+		return res;
+	}
+
 	@Override
 	public Facility getFacilityByClientId(String clientId) {
 		Map<String, Object> map = new LinkedHashMap<>();
@@ -335,6 +347,17 @@ public class PerunConnectorRpc implements PerunConnector {
 		return affiliations;
 	}
 
+	@Override
+	public List<Long> getGroupMemberUserIds(Long groupId) {
+		log.trace("getGroupMemberUserIds(group={})", groupId);
+		List<Long> userIds = new ArrayList<>();
+		for (Member member : Mapper.mapMembers(makeRpcCall("/groupsManager/getGroupMembers", ImmutableMap.of("group", groupId)))) {
+			userIds.add(member.getUserId());
+		}
+		log.trace("getGroupMemberUserIds(group={}) returns {} users", groupId, userIds.size());
+		return userIds;
+	}
+
 	public PerunAttribute getFacilityAttribute(Facility facility, String attributeName) {
 		log.trace("getFacilityAttribute({}, {})", facility, attributeName);
 		Map<String, Object> map = new LinkedHashMap<>();
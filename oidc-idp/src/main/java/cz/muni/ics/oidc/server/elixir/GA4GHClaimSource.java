@@ -1,22 +1,31 @@
 package cz.muni.ics.oidc.server.elixir;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.TextNode;
-import cz.muni.ics.oidc.models.PerunAttribute;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import cz.muni.ics.oidc.server.claims.ClaimSource;
 import cz.muni.ics.oidc.server.claims.ClaimSourceInitContext;
 import cz.muni.ics.oidc.server.claims.ClaimSourceProduceContext;
+import cz.muni.ics.oidc.server.claims.ClaimSourceRequirements;
 import cz.muni.ics.oidc.server.connectors.Affiliation;
+import cz.muni.ics.oidc.server.metrics.MetricsSource;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.http.client.InterceptingClientHttpRequestFactory;
 import org.springframework.http.client.support.BasicAuthorizationInterceptor;
-import org.springframework.web.client.HttpClientErrorException;
 import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
@@ -25,58 +34,156 @@ import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
 
 /**
  * Class producing GA4GH claims. The claim is specified in
  * https://docs.google.com/document/d/11Wg-uL75ypU5eNu2p_xh9gspmbGtmLzmdq5VfPHBirE/edi
+ *
+ * REMS and EGA Permissions APIs are called in parallel through one pooled HTTP client,
+ * data from Perun are gathered in parallel too, see {@link GA4GHInputs}.
+ * Configuration (replace [claimName] with the name of the claim):
+ * <ul>
+ *     <li><b>custom.claim.[claimName].bonaFide.groupId</b> - id of the group of bona fide researchers, default 10432</li>
+ *     <li><b>custom.claim.[claimName].bonaFide.statusAttribute</b> - user attribute with the bona fide status</li>
+ *     <li><b>custom.claim.[claimName].bonaFide.remsStatusAttribute</b> - user attribute with the bona fide status asserted by REMS</li>
+ *     <li><b>custom.claim.[claimName].permissions.connectTimeout</b> - milliseconds, default 5000</li>
+ *     <li><b>custom.claim.[claimName].permissions.readTimeout</b> - milliseconds, default 10000</li>
+ *     <li><b>custom.claim.[claimName].permissions.maxConnections</b> - default 20</li>
+ *     <li><b>custom.claim.[claimName].permissions.cache.ttl</b> - seconds to reuse a response of the API without asking it, default 60, 0 disables caching</li>
+ *     <li><b>custom.claim.[claimName].permissions.cache.staleIfError</b> - seconds to use the last response when the API fails, default 3600</li>
+ *     <li><b>custom.claim.[claimName].reuse.cacheSize</b> - number of users whose last claim is kept for reuse, default 10000</li>
+ *     <li><b>custom.claim.[claimName].reuse.maxAge</b> - seconds for which parts of the last claim are reused when their inputs
+ *     do not change, default 86400</li>
+ *     <li><b>custom.claim.[claimName].permissions.cache.maxSize</b> - maximum number of users with remembered responses, default 10000</li>
+ * </ul>
  */
 @SuppressWarnings("unused")
-public class GA4GHClaimSource extends ClaimSource {
+public class GA4GHClaimSource extends ClaimSource implements MetricsSource {
 
 	private static final Logger log = LoggerFactory.getLogger(GA4GHClaimSource.class);
 
 	private static final String BONA_FIDE_URL = "https://doi.org/10.1038/s41431-018-0219-y";
 	private static final String NO_ORG_URL = "https://ga4gh.org/duri/no_org";
 
-	private RestTemplate remsRestTemplate;
-	private String remsUrl;
-	private RestTemplate egaRestTemplate;
-	private String egaUrl;
+	private PermissionsApiClient remsClient;
+	private PermissionsApiClient egaClient;
+	private CloseableHttpClient httpClient;
+	private ExecutorService executor;
+	private GA4GHInputs.Config inputsConfig;
+	private Cache<Long, BuiltClaim> builtClaims;
+	private long reuseMaxAgeMillis;
+	private final LongAdder partsBuilt = new LongAdder();
+	private final LongAdder partsReused = new LongAdder();
 
 	public GA4GHClaimSource(ClaimSourceInitContext ctx) {
 		super(ctx);
+		ctx.requireLookups(ClaimSourceRequirements.Lookup.USER_EXT_SOURCES_AFFILIATIONS, ClaimSourceRequirements.Lookup.GROUP_AFFILIATIONS);
+		int connectTimeout = ctx.getIntProperty("permissions.connectTimeout", 5000, 0);
+		int readTimeout = ctx.getIntProperty("permissions.readTimeout", 10000, 0);
+		int maxConnections = ctx.getIntProperty("permissions.maxConnections", 20, 1);
+		httpClient = createPooledHttpClient(connectTimeout, readTimeout, maxConnections);
+		ClientHttpRequestFactory pooledRequestFactory = new HttpComponentsClientHttpRequestFactory(httpClient);
+		executor = createExecutor(maxConnections);
+		inputsConfig = new GA4GHInputs.Config(
+				ctx.getLongProperty("bonaFide.groupId", 10432, 1),
+				ctx.getProperty("bonaFide.statusAttribute", "urn:perun:user:attribute-def:def:bonaFideStatus"),
+				ctx.getProperty("bonaFide.remsStatusAttribute", "urn:perun:user:attribute-def:def:elixirBonaFideStatusREMS"));
+		ctx.requireUserAttributes(inputsConfig.getUserAttributes());
+		log.info("GA4GH inputs from Perun {}", inputsConfig);
+		long reuseMaxAge = ctx.getLongProperty("reuse.maxAge", 86400, 0);
+		reuseMaxAgeMillis = TimeUnit.SECONDS.toMillis(reuseMaxAge);
+		builtClaims = CacheBuilder.newBuilder()
+				.maximumSize(ctx.getLongProperty("reuse.cacheSize", 10000, 0))
+				.expireAfterWrite(reuseMaxAge, TimeUnit.SECONDS)
+				.build();
+		long cacheTtl = ctx.getLongProperty("permissions.cache.ttl", 60, 0);
+		long staleIfError = ctx.getLongProperty("permissions.cache.staleIfError", 3600, 0);
+		long cacheMaxSize = ctx.getLongProperty("permissions.cache.maxSize", 10000, 0);
 		//REMS
-		remsUrl = ctx.getProperty("rems.url", null);
+		String remsUrl = ctx.getProperty("rems.url", null);
 		String remsHeader = ctx.getProperty("rems.header", null);
 		String remsHeaderValue = ctx.getProperty("rems.key", null);
 		if (remsUrl == null || remsHeader == null || remsHeaderValue == null) {
 			log.warn("REMS not configured, will not read its permissions!");
 		} else {
-			remsRestTemplate = new RestTemplate();
+			RestTemplate remsRestTemplate = new RestTemplate();
 			remsRestTemplate.setRequestFactory(
-					new InterceptingClientHttpRequestFactory(remsRestTemplate.getRequestFactory(),
+					new InterceptingClientHttpRequestFactory(pooledRequestFactory,
 							Collections.singletonList(new AddHeaderInterceptor(remsHeader, remsHeaderValue)))
 			);
+			remsClient = new PermissionsApiClient("REMS", remsRestTemplate, remsUrl, "", cacheTtl, staleIfError, cacheMaxSize);
 			log.info("REMS Permissions API configured at {}", remsUrl);
 		}
 		//EGA
-		egaUrl = ctx.getProperty("ega.url", null);
+		String egaUrl = ctx.getProperty("ega.url", null);
 		String egaUser = ctx.getProperty("ega.user", null);
 		String egaPassword = ctx.getProperty("ega.password", null);
 		if (egaUrl == null || egaUser == null || egaPassword == null) {
 			log.warn("EGA not configured, will not read its permissions!");
 		} else {
-			egaRestTemplate = new RestTemplate();
+			RestTemplate egaRestTemplate = new RestTemplate();
 			egaRestTemplate.setRequestFactory(
-					new InterceptingClientHttpRequestFactory(egaRestTemplate.getRequestFactory(),
+					new InterceptingClientHttpRequestFactory(pooledRequestFactory,
 							Collections.singletonList(new BasicAuthorizationInterceptor(egaUser, egaPassword)))
 			);
+			egaClient = new PermissionsApiClient("EGA", egaRestTemplate, egaUrl, "/", cacheTtl, staleIfError, cacheMaxSize);
 			log.info("EGA Permissions API configured at {}", egaUrl);
 		}
 	}
 
+	private static CloseableHttpClient createPooledHttpClient(int connectTimeout, int readTimeout, int maxConnections) {
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectionRequestTimeout(connectTimeout)
+				.setConnectTimeout(connectTimeout)
+				.setSocketTimeout(readTimeout)
+				.build();
+		PoolingHttpClientConnectionManager poolingConnectionManager = new PoolingHttpClientConnectionManager();
+		poolingConnectionManager.setMaxTotal(maxConnections);
+		poolingConnectionManager.setDefaultMaxPerRoute(maxConnections);
+		return HttpClients.custom()
+				.setDefaultRequestConfig(requestConfig)
+				.setConnectionManager(poolingConnectionManager)
+				.build();
+	}
+
+	/**
+	 * Threads for calling Permissions APIs and Perun, when all are busy a call runs in the thread producing the claim.
+	 */
+	private static ExecutorService createExecutor(int maxThreads) {
+		AtomicInteger threadNumber = new AtomicInteger();
+		return new ThreadPoolExecutor(0, maxThreads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), r -> {
+			Thread t = new Thread(r, "ga4gh-permissions-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			log.warn("cannot close HTTP client for Permissions APIs", e);
+		}
+	}
+
 	@Override
 	public JsonNode produceValue(ClaimSourceProduceContext pctx) {
 		log.trace("produceValue(user={})", pctx.getPerunUserId());
@@ -89,36 +196,120 @@ public class GA4GHClaimSource extends ClaimSource {
 			log.debug("Client '{}' does not have scope ga4gh", pctx.getClient().getClientName());
 			return null;
 		}
+		return buildGa4gh(pctx);
+	}
 
-		ObjectNode ga4gh = JsonNodeFactory.instance.objectNode();
+	/**
+	 * Builds the structured claim, an object with arrays of RI claims keyed by their type.
+	 */
+	protected ObjectNode buildGa4gh(ClaimSourceProduceContext pctx) {
+		//Permissions APIs are the slowest part, so they run while Perun is asked for the rest
+		CompletableFuture<JsonNode> remsPermissions = remsClient == null ? null :
+				CompletableFuture.supplyAsync(() -> remsClient.getPermissions(pctx.getSub()), executor);
+		CompletableFuture<JsonNode> egaPermissions = egaClient == null ? null :
+				CompletableFuture.supplyAsync(() -> egaClient.getPermissions(pctx.getSub()), executor);
 
-		List<Affiliation> affiliations = pctx.getPerunConnector().getUserExtSourcesAffiliations(pctx.getPerunUserId());
+		GA4GHInputs inputs = GA4GHInputs.gather(pctx, inputsConfig, executor);
+		JsonNode rems = remsPermissions != null ? remsPermissions.join() : null;
+		JsonNode ega = egaPermissions != null ? egaPermissions.join() : null;
+		List<Affiliation> affiliations = inputs.getUserExtSourcesAffiliations();
 
-		ArrayNode affiliationAndRole = ga4gh.arrayNode();
-		JsonNode affDesc = addAffiliationAndRoles(pctx, affiliationAndRole, affiliations);
-//		ga4gh.set("AffiliationAndRole.description", affDesc);
-		ga4gh.set("AffiliationAndRole", affiliationAndRole);
+		//parts are rebuilt only when their inputs changed since the last claim of the user
+		BuiltClaim previous = builtClaims.getIfPresent(pctx.getPerunUserId());
+		BuiltClaim current = new BuiltClaim();
+		ArrayNode affiliationAndRole = part(previous, current, "AffiliationAndRole",
+				fingerprint(affiliations), () -> {
+					ArrayNode array = JsonNodeFactory.instance.arrayNode();
+					addAffiliationAndRoles(array, affiliations);
+					return array;
+				});
+		ArrayNode acceptedTermsAndPolicies = part(previous, current, "AcceptedTermsAndPolicies",
+				newHasher().putBoolean(inputs.isInBonaFideGroup()).putString(String.valueOf(inputs.getBonaFideStatusCreatedAt()), UTF_8).hash(),
+				() -> {
+					ArrayNode array = JsonNodeFactory.instance.arrayNode();
+					addAcceptedTermsAndPolicies(inputs, array);
+					return array;
+				});
+		ArrayNode researcherStatus = part(previous, current, "ResearcherStatus",
+				Hashing.combineOrdered(Arrays.asList(fingerprint(affiliations), fingerprint(inputs.getGroupAffiliations()),
+						newHasher().putString(String.valueOf(inputs.getBonaFideStatusREMSCreatedAt()), UTF_8).hash())),
+				() -> {
+					ArrayNode array = JsonNodeFactory.instance.arrayNode();
+					addResearcherStatuses(inputs, array, affiliations);
+					return array;
+				});
+		ArrayNode controlledAccessGrants = part(previous, current, "ControlledAccessGrants",
+				newHasher().putString(String.valueOf(rems), UTF_8).putString(String.valueOf(ega), UTF_8).hash(),
+				() -> {
+					ArrayNode array = JsonNodeFactory.instance.arrayNode();
+					addControlledAccessGrants(rems, ega, array);
+					return array;
+				});
 
-		ArrayNode acceptedTermsAndPolicies = ga4gh.arrayNode();
-		TextNode termsDesc = addAcceptedTermsAndPolicies(pctx, acceptedTermsAndPolicies);
-//		ga4gh.set("AcceptedTermsAndPolicies.description", termsDesc);
+		if (previous != null && current.reusedAll) {
+			log.debug("reusing GA4GH claim of user {}", pctx.getPerunUserId());
+			return previous.claim;
+		}
+		ObjectNode ga4gh = JsonNodeFactory.instance.objectNode();
+		ga4gh.set("AffiliationAndRole", affiliationAndRole);
 		ga4gh.set("AcceptedTermsAndPolicies", acceptedTermsAndPolicies);
-
-		ArrayNode researcherStatus = ga4gh.arrayNode();
-		TextNode resDesc = addResearcherStatuses(pctx, researcherStatus, affiliations);
-//		ga4gh.set("ResearcherStatus.description", resDesc);
 		ga4gh.set("ResearcherStatus", researcherStatus);
-
-		ArrayNode controlledAccessGrants = ga4gh.arrayNode();
-		TextNode ctrlDesc = addControlledAccessGrants(pctx, controlledAccessGrants);
-//		ga4gh.set("ControlledAccessGrants.description", ctrlDesc);
 		ga4gh.set("ControlledAccessGrants", controlledAccessGrants);
-
-//		ga4gh.set("timestamp", ga4gh.textNode(ZonedDateTime.now().format(DateTimeFormatter.ISO_DATE_TIME)));
+		current.claim = ga4gh;
+		builtClaims.put(pctx.getPerunUserId(), current);
 		return ga4gh;
 	}
 
-	private JsonNode addAffiliationAndRoles(ClaimSourceProduceContext pctx, ArrayNode affiliationAndRole, List<Affiliation> affiliations) {
+	/**
+	 * Gets part of the claim from the previous claim when the fingerprint of its inputs is the same, or builds it.
+	 */
+	private ArrayNode part(BuiltClaim previous, BuiltClaim current, String name, HashCode fingerprint, Supplier<ArrayNode> builder) {
+		BuiltPart previousPart = previous != null ? previous.parts.get(name) : null;
+		BuiltPart part;
+		if (previousPart != null && previousPart.fingerprint.equals(fingerprint)
+				&& System.currentTimeMillis() - previousPart.builtAt < reuseMaxAgeMillis) {
+			part = previousPart;
+			partsReused.increment();
+		} else {
+			part = new BuiltPart(fingerprint, builder.get());
+			current.reusedAll = false;
+			partsBuilt.increment();
+		}
+		current.parts.put(name, part);
+		return part.array;
+	}
+
+	private static Hasher newHasher() {
+		return Hashing.murmur3_128().newHasher();
+	}
+
+	private static HashCode fingerprint(List<Affiliation> affiliations) {
+		Hasher hasher = newHasher();
+		for (Affiliation affiliation : affiliations) {
+			hasher.putString(String.valueOf(affiliation.getSource()), UTF_8)
+					.putString(String.valueOf(affiliation.getValue()), UTF_8)
+					.putLong(affiliation.getAsserted());
+		}
+		return hasher.hash();
+	}
+
+	@Override
+	public String getMetricsName() {
+		return "ga4gh";
+	}
+
+	@Override
+	public Map<String, Object> getMetrics() {
+		long built = partsBuilt.sum();
+		long reused = partsReused.sum();
+		Map<String, Object> metrics = new LinkedHashMap<>();
+		metrics.put("partsBuilt", built);
+		metrics.put("partsReused", reused);
+		metrics.put("reuseRatio", built + reused == 0 ? 0 : reused / (double) (built + reused));
+		return metrics;
+	}
+
+	private JsonNode addAffiliationAndRoles(ArrayNode affiliationAndRole, List<Affiliation> affiliations) {
 		//by=system for users with affiliation asserted by their IdP (set in UserExtSource attribute "affiliation")
 		StringBuilder sb = new StringBuilder("Affiliations: ");
 		for (Affiliation affiliation : affiliations) {
@@ -131,12 +322,10 @@ public class GA4GHClaimSource extends ClaimSource {
 		return affiliationAndRole.textNode(sb.toString());
 	}
 
-	private TextNode addAcceptedTermsAndPolicies(ClaimSourceProduceContext pctx, ArrayNode acceptedTermsAndPolicies) {
-		//by=self for members of the group 10432 "Bona Fide Researchers"
-		boolean userInGroup = pctx.getPerunConnector().isUserInGroup(pctx.getPerunUserId(), 10432L);
-		if (userInGroup) {
-			PerunAttribute bonaFideStatus = pctx.getPerunConnector().getUserAttribute(pctx.getPerunUserId(), "urn:perun:user:attribute-def:def:bonaFideStatus");
-			String valueCreatedAt = bonaFideStatus.getValueCreatedAt();
+	private TextNode addAcceptedTermsAndPolicies(GA4GHInputs inputs, ArrayNode acceptedTermsAndPolicies) {
+		//by=self for members of the group "Bona Fide Researchers"
+		if (inputs.isInBonaFideGroup()) {
+			String valueCreatedAt = inputs.getBonaFideStatusCreatedAt();
 			long asserted;
 			if (valueCreatedAt != null) {
 				asserted = Timestamp.valueOf(valueCreatedAt).getTime() / 1000L;
@@ -151,11 +340,10 @@ public class GA4GHClaimSource extends ClaimSource {
 		}
 	}
 
-	private TextNode addResearcherStatuses(ClaimSourceProduceContext pctx, ArrayNode researcherStatus, List<Affiliation> affiliations) {
+	private TextNode addResearcherStatuses(GA4GHInputs inputs, ArrayNode researcherStatus, List<Affiliation> affiliations) {
 		StringBuilder sb = new StringBuilder("Researcher status asserted by ");
 		//by=peer for users with attribute elixirBonaFideStatusREMS
-		PerunAttribute elixirBonaFideStatusREMS = pctx.getPerunConnector().getUserAttribute(pctx.getPerunUserId(), "urn:perun:user:attribute-def:def:elixirBonaFideStatusREMS");
-		String valueCreatedAt = elixirBonaFideStatusREMS.getValueCreatedAt();
+		String valueCreatedAt = inputs.getBonaFideStatusREMSCreatedAt();
 		if (valueCreatedAt != null) {
 			long asserted = Timestamp.valueOf(valueCreatedAt).getTime() / 1000L;
 			long expires = ZonedDateTime.now().plusYears(1L).toEpochSecond();
@@ -171,7 +359,7 @@ public class GA4GHClaimSource extends ClaimSource {
 			}
 		}
 		//by=so for users with faculty affiliation asserted by membership in a group with groupAffiliations attribute
-		for (Affiliation affiliation : pctx.getPerunConnector().getGroupAffiliations(pctx.getPerunUserId())) {
+		for (Affiliation affiliation : inputs.getGroupAffiliations()) {
 			if (affiliation.getValue().startsWith("faculty@")) {
 				long expires = ZonedDateTime.now().plusYears(1L).toEpochSecond();
 				researcherStatus.add(createRIClaim(BONA_FIDE_URL, affiliation.getValue(), "so", affiliation.getAsserted(), expires, null));
@@ -198,22 +386,17 @@ public class GA4GHClaimSource extends ClaimSource {
 		return n;
 	}
 
-	private TextNode addControlledAccessGrants(ClaimSourceProduceContext pctx, ArrayNode controlledAccessGrants) {
+	private TextNode addControlledAccessGrants(JsonNode remsPermissions, JsonNode egaPermissions, ArrayNode controlledAccessGrants) {
 		StringBuilder sb = new StringBuilder();
-		if (remsRestTemplate != null) {
-			callPermissionsAPI(remsRestTemplate, remsUrl + pctx.getSub(), pctx, controlledAccessGrants, sb);
-		}
-		if (egaRestTemplate != null) {
-			callPermissionsAPI(egaRestTemplate, egaUrl + pctx.getSub() + "/", pctx, controlledAccessGrants, sb);
-		}
+		addPermissions(remsPermissions, controlledAccessGrants, sb);
+		addPermissions(egaPermissions, controlledAccessGrants, sb);
 		if(sb.length()>1) {
 			sb.deleteCharAt(0);
 		}
 		return controlledAccessGrants.textNode(sb.toString());
 	}
 
-	private void callPermissionsAPI(RestTemplate restTemplate, String actionURL, ClaimSourceProduceContext pctx, ArrayNode controlledAccessGrants, StringBuilder sb) {
-		JsonNode permissions = getPermissions(restTemplate, actionURL);
+	private void addPermissions(JsonNode permissions, ArrayNode controlledAccessGrants, StringBuilder sb) {
 		if (permissions != null) {
 			JsonNode grants = permissions.path("ga4gh").path("ControlledAccessGrants");
 			if (grants.isArray()) {
@@ -233,41 +416,20 @@ public class GA4GHClaimSource extends ClaimSource {
 		}
 	}
 
-	@SuppressWarnings("Duplicates")
-	private static JsonNode getPermissions(RestTemplate rt, String actionUrl) {
-		//get permissions data
-		try {
-			JsonNode result;
-			//make the call
-			try {
-				log.debug("calling Permissions API at {}", actionUrl);
-				result = rt.getForObject(actionUrl, JsonNode.class);
-			} catch (HttpClientErrorException ex) {
-				MediaType contentType = ex.getResponseHeaders().getContentType();
-				String body = ex.getResponseBodyAsString();
-				log.error("HTTP ERROR " + ex.getRawStatusCode() + " URL " + actionUrl + " Content-Type: " + contentType);
-				if (ex.getRawStatusCode() == 404) {
-					log.warn("Got status 404 from Permissions endpoint {}, ELIXIR AAI user is not linked to user at Permissions API", actionUrl);
-					return null;
-				}
-				if ("json".equals(contentType.getSubtype())) {
-					try {
-						log.error(new ObjectMapper().readValue(body, JsonNode.class).path("message").asText());
-					} catch (IOException e) {
-						log.error("cannot parse error message from JSON", e);
-					}
-				} else {
-					log.error("cannot make REST call", ex);
-				}
-				return null;
-			}
-			log.debug("Permissions API response: {}", result);
-			return result;
-		} catch (Exception ex) {
-			log.error("Cannot get dataset permissions", ex);
+	private static class BuiltPart {
+		private final HashCode fingerprint;
+		private final ArrayNode array;
+		private final long builtAt = System.currentTimeMillis();
+
+		BuiltPart(HashCode fingerprint, ArrayNode array) {
+			this.fingerprint = fingerprint;
+			this.array = array;
 		}
-		return null;
 	}
 
-
+	private static class BuiltClaim {
+		private final Map<String, BuiltPart> parts = new HashMap<>();
+		private boolean reusedAll = true;
+		private ObjectNode claim;
+	}
 }
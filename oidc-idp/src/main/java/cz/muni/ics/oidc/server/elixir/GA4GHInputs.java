@@ -0,0 +1,121 @@
+package cz.muni.ics.oidc.server.elixir;
+
+import cz.muni.ics.oidc.models.PerunAttribute;
+import cz.muni.ics.oidc.models.RichUser;
+import cz.muni.ics.oidc.server.claims.ClaimSourceProduceContext;
+import cz.muni.ics.oidc.server.connectors.Affiliation;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Data from Perun needed for building the GA4GH claim of one user, gathered from the produce context
+ * by {@link #gather(ClaimSourceProduceContext, Config, Executor)}.
+ */
+class GA4GHInputs {
+
+	private final List<Affiliation> userExtSourcesAffiliations;
+	private final List<Affiliation> groupAffiliations;
+	private final boolean inBonaFideGroup;
+	private final String bonaFideStatusCreatedAt;
+	private final String bonaFideStatusREMSCreatedAt;
+
+	private GA4GHInputs(List<Affiliation> userExtSourcesAffiliations, List<Affiliation> groupAffiliations,
+						boolean inBonaFideGroup, String bonaFideStatusCreatedAt, String bonaFideStatusREMSCreatedAt) {
+		this.userExtSourcesAffiliations = Collections.unmodifiableList(userExtSourcesAffiliations);
+		this.groupAffiliations = Collections.unmodifiableList(groupAffiliations);
+		this.inBonaFideGroup = inBonaFideGroup;
+		this.bonaFideStatusCreatedAt = bonaFideStatusCreatedAt;
+		this.bonaFideStatusREMSCreatedAt = bonaFideStatusREMSCreatedAt;
+	}
+
+	/**
+	 * Gathers all inputs, lookups which are not ready in the context run in parallel. Bona fide status attributes
+	 * are read from user attributes fetched for the claim, see {@link Config#getUserAttributes()}.
+	 */
+	static GA4GHInputs gather(ClaimSourceProduceContext pctx, Config config, Executor executor) {
+		CompletableFuture<Boolean> inGroup = CompletableFuture.supplyAsync(
+				() -> pctx.isUserInGroup(config.bonaFideGroupId), executor);
+		CompletableFuture<List<Affiliation>> groupAffiliations = CompletableFuture.supplyAsync(
+				pctx::getGroupAffiliations, executor);
+		List<Affiliation> userExtSourcesAffiliations = pctx.getUserExtSourcesAffiliations();
+		String statusREMSCreatedAt = valueCreatedAt(pctx, config.bonaFideStatusREMSAttribute);
+		try {
+			boolean member = inGroup.join();
+			return new GA4GHInputs(userExtSourcesAffiliations, groupAffiliations.join(), member,
+					member ? valueCreatedAt(pctx, config.bonaFideStatusAttribute) : null, statusREMSCreatedAt);
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+		}
+	}
+
+	/**
+	 * Gets time when the value of a user attribute was set. Connectors which do not fetch the attribute
+	 * with its metadata, e.g. LDAP, are asked for the attribute.
+	 */
+	private static String valueCreatedAt(ClaimSourceProduceContext pctx, String attributeName) {
+		RichUser richUser = pctx.getRichUser();
+		if (richUser != null && richUser.getAttributes().containsKey(attributeName)) {
+			return richUser.getValueCreatedAt(attributeName);
+		}
+		PerunAttribute attribute = pctx.getPerunConnector().getUserAttribute(pctx.getPerunUserId(), attributeName);
+		return attribute != null ? attribute.getValueCreatedAt() : null;
+	}
+
+	List<Affiliation> getUserExtSourcesAffiliations() {
+		return userExtSourcesAffiliations;
+	}
+
+	List<Affiliation> getGroupAffiliations() {
+		return groupAffiliations;
+	}
+
+	boolean isInBonaFideGroup() {
+		return inBonaFideGroup;
+	}
+
+	/**
+	 * @return when the bona fide status was set, null when the user is not in the bona fide group or it is not set
+	 */
+	String getBonaFideStatusCreatedAt() {
+		return bonaFideStatusCreatedAt;
+	}
+
+	/**
+	 * @return when the bona fide status asserted by REMS was set, null when it is not set
+	 */
+	String getBonaFideStatusREMSCreatedAt() {
+		return bonaFideStatusREMSCreatedAt;
+	}
+
+	/**
+	 * Identifiers of Perun objects holding the inputs.
+	 */
+	static class Config {
+		private final long bonaFideGroupId;
+		private final String bonaFideStatusAttribute;
+		private final String bonaFideStatusREMSAttribute;
+
+		Config(long bonaFideGroupId, String bonaFideStatusAttribute, String bonaFideStatusREMSAttribute) {
+			this.bonaFideGroupId = bonaFideGroupId;
+			this.bonaFideStatusAttribute = bonaFideStatusAttribute;
+			this.bonaFideStatusREMSAttribute = bonaFideStatusREMSAttribute;
+		}
+
+		/**
+		 * @return user attributes to be fetched for the claim
+		 */
+		String[] getUserAttributes() {
+			return new String[]{bonaFideStatusAttribute, bonaFideStatusREMSAttribute};
+		}
+
+		@Override
+		public String toString() {
+			return "group " + bonaFideGroupId + ", attributes " + bonaFideStatusAttribute + " and " + bonaFideStatusREMSAttribute;
+		}
+	}
+}
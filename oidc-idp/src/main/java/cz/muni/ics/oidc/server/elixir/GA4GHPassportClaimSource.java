@@ -0,0 +1,102 @@
+package cz.muni.ics.oidc.server.elixir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import cz.muni.ics.oidc.server.claims.ClaimSourceInitContext;
+import cz.muni.ics.oidc.server.claims.ClaimSourceProduceContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class producing GA4GH Passport claim ga4gh_passport_v1, an array of visas signed by this server.
+ * The visas are made from the same data as the structured claim of {@link GA4GHClaimSource}.
+ * Signed visas are reused until shortly before their expiration, see {@link VisaSigner}.
+ *
+ * Configuration (replace [claimName] with the name of the claim), in addition to {@link GA4GHClaimSource}:
+ * <ul>
+ *     <li><b>custom.claim.[claimName].visas.cacheSize</b> - maximum number of remembered signed visas, default 100000</li>
+ *     <li><b>custom.claim.[claimName].visas.reuseMargin</b> - seconds before expiration when a visa is signed again, default 3600</li>
+ *     <li><b>custom.claim.[claimName].visas.expireAfterWriteSeconds</b> - how long a signed visa is remembered at most,
+ *     default 366 days, the longest lifetime of visas released for one year</li>
+ * </ul>
+ */
+@SuppressWarnings("unused")
+public class GA4GHPassportClaimSource extends GA4GHClaimSource {
+
+	private static final Logger log = LoggerFactory.getLogger(GA4GHPassportClaimSource.class);
+
+	private static final String SCOPE = "ga4gh_passport_v1";
+
+	private final VisaSigner visaSigner;
+
+	public GA4GHPassportClaimSource(ClaimSourceInitContext ctx) {
+		super(ctx);
+		if (ctx.getJwtService() == null) {
+			throw new IllegalStateException("JWT signing service is needed for signing visas");
+		}
+		long cacheSize = ctx.getLongProperty("visas.cacheSize", 100000, 0);
+		long reuseMargin = ctx.getLongProperty("visas.reuseMargin", 3600, 0);
+		long expireAfterWrite = ctx.getLongProperty("visas.expireAfterWriteSeconds", TimeUnit.DAYS.toSeconds(366), 1);
+		visaSigner = new VisaSigner(ctx.getJwtService(), ctx.getIssuer(), cacheSize, reuseMargin, expireAfterWrite);
+	}
+
+	@Override
+	public JsonNode produceValue(ClaimSourceProduceContext pctx) {
+		log.trace("produceValue(user={})", pctx.getPerunUserId());
+		if (pctx.getClient() == null) {
+			log.debug("client is not set");
+			return JsonNodeFactory.instance.textNode("Global Alliance For Genomic Health Passport");
+		}
+		if (!pctx.getClient().getScope().contains(SCOPE)) {
+			log.debug("Client '{}' does not have scope {}", pctx.getClient().getClientName(), SCOPE);
+			return null;
+		}
+		ObjectNode ga4gh = buildGa4gh(pctx);
+		ArrayNode passport = JsonNodeFactory.instance.arrayNode();
+		for (Iterator<Map.Entry<String, JsonNode>> it = ga4gh.fields(); it.hasNext(); ) {
+			Map.Entry<String, JsonNode> typeAndClaims = it.next();
+			for (JsonNode riClaim : typeAndClaims.getValue()) {
+				passport.add(visaSigner.sign(pctx.getSub(), toVisa(typeAndClaims.getKey(), riClaim), riClaim.path("expires").asLong()));
+			}
+		}
+		log.debug("passport of {} has {} visas, {} signed and {} reused in total", pctx.getSub(), passport.size(),
+				visaSigner.getSigned(), visaSigner.getReused());
+		return passport;
+	}
+
+	@Override
+	public String getMetricsName() {
+		return "ga4gh_passport";
+	}
+
+	@Override
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> metrics = super.getMetrics();
+		metrics.put("visasSigned", visaSigner.getSigned());
+		metrics.put("visasReused", visaSigner.getReused());
+		return metrics;
+	}
+
+	/**
+	 * Converts RI claim of the structured claim into the content of a visa.
+	 */
+	private static ObjectNode toVisa(String type, JsonNode riClaim) {
+		ObjectNode visa = JsonNodeFactory.instance.objectNode();
+		visa.put("type", type);
+		visa.set("asserted", riClaim.path("asserted"));
+		visa.set("value", riClaim.path("value"));
+		visa.set("source", riClaim.path("source"));
+		visa.set("by", riClaim.path("by"));
+		JsonNode condition = riClaim.get("condition");
+		if (condition != null) {
+			visa.set("conditions", condition);
+		}
+		return visa;
+	}
+}
@@ -0,0 +1,160 @@
+package cz.muni.ics.oidc.server.elixir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.Striped;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Client of a GA4GH Permissions API (REMS or EGA) remembering responses for each user.
+ * A remembered response is used for ttl seconds, then it is revalidated using ETag and Last-Modified
+ * headers of the previous response. When the API fails, the last good response is used for staleIfError seconds.
+ * Only one request for the same user is made at a time.
+ */
+class PermissionsApiClient {
+
+	private static final Logger log = LoggerFactory.getLogger(PermissionsApiClient.class);
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final String name;
+	private final RestTemplate restTemplate;
+	private final String urlPrefix;
+	private final String urlSuffix;
+	private final long ttlMillis;
+	private final long staleIfErrorMillis;
+	private final Cache<String, StoredResponse> responses;
+	private final Striped<Lock> locks = Striped.lock(64);
+
+	/**
+	 * @param ttl seconds to use a response without asking the API, 0 means responses are not remembered
+	 * @param staleIfError seconds to use the last good response when the API fails
+	 */
+	PermissionsApiClient(String name, RestTemplate restTemplate, String urlPrefix, String urlSuffix, long ttl,
+						 long staleIfError, long maxSize) {
+		this.name = name;
+		this.restTemplate = restTemplate;
+		this.urlPrefix = urlPrefix;
+		this.urlSuffix = urlSuffix;
+		this.ttlMillis = TimeUnit.SECONDS.toMillis(ttl);
+		this.staleIfErrorMillis = TimeUnit.SECONDS.toMillis(staleIfError);
+		this.responses = ttl > 0 ? CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(ttl + staleIfError, TimeUnit.SECONDS)
+				.build() : null;
+	}
+
+	/**
+	 * Gets permissions of the user.
+	 *
+	 * @param sub user identifier
+	 * @return permissions document, or null when the user is unknown to the API or the API fails
+	 */
+	JsonNode getPermissions(String sub) {
+		String actionUrl = urlPrefix + sub + urlSuffix;
+		if (responses == null) {
+			return fetch(actionUrl, null).body;
+		}
+		Lock lock = locks.get(sub);
+		lock.lock();
+		try {
+			StoredResponse stored = responses.getIfPresent(sub);
+			long now = System.currentTimeMillis();
+			if (stored != null && now - stored.fetchedAt < ttlMillis) {
+				log.debug("using {} permissions of {} fetched {} ms ago", name, sub, now - stored.fetchedAt);
+				return stored.body;
+			}
+			StoredResponse fetched = fetch(actionUrl, stored);
+			if (fetched.failed) {
+				if (stored != null && now - stored.fetchedAt < ttlMillis + staleIfErrorMillis) {
+					log.warn("{} Permissions API failed, using permissions of {} fetched {} s ago", name, sub,
+							TimeUnit.MILLISECONDS.toSeconds(now - stored.fetchedAt));
+					return stored.body;
+				}
+				return null;
+			}
+			responses.put(sub, fetched);
+			return fetched.body;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@SuppressWarnings("Duplicates")
+	private StoredResponse fetch(String actionUrl, StoredResponse previous) {
+		try {
+			HttpHeaders headers = new HttpHeaders();
+			if (previous != null && previous.etag != null) {
+				headers.setIfNoneMatch(previous.etag);
+			}
+			if (previous != null && previous.lastModified > 0) {
+				headers.setIfModifiedSince(previous.lastModified);
+			}
+			ResponseEntity<JsonNode> response;
+			try {
+				log.debug("calling {} Permissions API at {}", name, actionUrl);
+				response = restTemplate.exchange(actionUrl, HttpMethod.GET, new HttpEntity<>(headers), JsonNode.class);
+			} catch (HttpClientErrorException ex) {
+				MediaType contentType = ex.getResponseHeaders().getContentType();
+				String body = ex.getResponseBodyAsString();
+				log.error("HTTP ERROR " + ex.getRawStatusCode() + " URL " + actionUrl + " Content-Type: " + contentType);
+				if (ex.getRawStatusCode() == 404) {
+					log.warn("Got status 404 from Permissions endpoint {}, ELIXIR AAI user is not linked to user at Permissions API", actionUrl);
+					return new StoredResponse(null, null, 0, false);
+				}
+				if (contentType != null && "json".equals(contentType.getSubtype())) {
+					try {
+						log.error(mapper.readValue(body, JsonNode.class).path("message").asText());
+					} catch (IOException e) {
+						log.error("cannot parse error message from JSON", e);
+					}
+				} else {
+					log.error("cannot make REST call", ex);
+				}
+				return StoredResponse.FAILED;
+			}
+			if (response.getStatusCode() == HttpStatus.NOT_MODIFIED && previous != null) {
+				log.debug("{} permissions at {} not modified", name, actionUrl);
+				return new StoredResponse(previous.body, previous.etag, previous.lastModified, false);
+			}
+			log.debug("Permissions API response: {}", response.getBody());
+			return new StoredResponse(response.getBody(), response.getHeaders().getETag(),
+					response.getHeaders().getLastModified(), false);
+		} catch (Exception ex) {
+			log.error("Cannot get dataset permissions", ex);
+		}
+		return StoredResponse.FAILED;
+	}
+
+	private static class StoredResponse {
+		static final StoredResponse FAILED = new StoredResponse(null, null, 0, true);
+
+		private final JsonNode body;
+		private final String etag;
+		private final long lastModified;
+		private final boolean failed;
+		private final long fetchedAt = System.currentTimeMillis();
+
+		StoredResponse(JsonNode body, String etag, long lastModified, boolean failed) {
+			this.body = body;
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.failed = failed;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package cz.muni.ics.oidc.server.elixir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import org.mitre.jwt.signer.service.JWTSigningAndValidationService;
+import org.mitre.openid.connect.web.JWKSetPublishingEndpoint;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Signs GA4GH visas and remembers them, so that a visa with the same content is signed only once.
+ * Some visas expire a fixed time after they are released, so the requested expiration is not a part
+ * of the content. A remembered visa is used until reuseMargin seconds before its expiration, if it does not
+ * expire later than requested. Visas are remembered at most expireAfterWriteSeconds.
+ */
+class VisaSigner {
+
+	private static final Logger log = LoggerFactory.getLogger(VisaSigner.class);
+
+	private static final ObjectMapper mapper = new ObjectMapper();
+
+	private final JWTSigningAndValidationService jwtService;
+	private final String issuer;
+	private final URI jku;
+	private final long reuseMarginSeconds;
+	private final Cache<HashCode, SignedVisa> visas;
+	private final LongAdder signed = new LongAdder();
+	private final LongAdder reused = new LongAdder();
+
+	VisaSigner(JWTSigningAndValidationService jwtService, String issuer, long maxSize, long reuseMarginSeconds,
+			   long expireAfterWriteSeconds) {
+		this.jwtService = jwtService;
+		this.issuer = issuer;
+		this.jku = URI.create(issuer + JWKSetPublishingEndpoint.URL);
+		this.reuseMarginSeconds = reuseMarginSeconds;
+		this.visas = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterWrite(expireAfterWriteSeconds, TimeUnit.SECONDS)
+				.build();
+	}
+
+	/**
+	 * Gets signed visa.
+	 *
+	 * @param sub user identifier
+	 * @param visa content of claim ga4gh_visa_v1
+	 * @param expires expiration of the visa in seconds since epoch
+	 * @return serialized JWT
+	 */
+	String sign(String sub, JsonNode visa, long expires) {
+		HashCode key = Hashing.murmur3_128().newHasher()
+				.putString(sub, StandardCharsets.UTF_8)
+				.putString(visa.toString(), StandardCharsets.UTF_8)
+				.hash();
+		long now = System.currentTimeMillis() / 1000L;
+		SignedVisa stored = visas.getIfPresent(key);
+		if (stored != null && now < stored.expires - reuseMarginSeconds && stored.expires <= expires) {
+			reused.increment();
+			return stored.jwt;
+		}
+		String jwt = signNow(sub, visa, now, expires);
+		signed.increment();
+		if (now < expires - reuseMarginSeconds) {
+			visas.put(key, new SignedVisa(jwt, expires));
+		} else {
+			visas.invalidate(key);
+		}
+		return jwt;
+	}
+
+	private String signNow(String sub, JsonNode visa, long now, long expires) {
+		JWSAlgorithm signingAlg = jwtService.getDefaultSigningAlgorithm();
+		JWSHeader header = new JWSHeader(signingAlg, null, null, null, jku, null, null, null, null, null,
+				jwtService.getDefaultSignerKeyId(),
+				null, null);
+		JWTClaimsSet claims = new JWTClaimsSet.Builder()
+				.issuer(issuer)
+				.subject(sub)
+				.issueTime(new Date(TimeUnit.SECONDS.toMillis(now)))
+				.expirationTime(new Date(TimeUnit.SECONDS.toMillis(expires)))
+				.claim("ga4gh_visa_v1", mapper.convertValue(visa, Map.class))
+				.build();
+		SignedJWT jwt = new SignedJWT(header, claims);
+		jwtService.signJwt(jwt);
+		log.trace("signed visa {} for {}", visa, sub);
+		return jwt.serialize();
+	}
+
+	long getSigned() {
+		return signed.sum();
+	}
+
+	long getReused() {
+		return reused.sum();
+	}
+
+	private static class SignedVisa {
+		private final String jwt;
+		private final long expires;
+
+		SignedVisa(String jwt, long expires) {
+			this.jwt = jwt;
+			this.expires = expires;
+		}
+	}
+}
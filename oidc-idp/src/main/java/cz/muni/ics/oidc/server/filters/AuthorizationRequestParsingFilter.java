@@ -0,0 +1,51 @@
+package cz.muni.ics.oidc.server.filters;
+
+import org.mitre.oauth2.service.ClientDetailsEntityService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.oauth2.provider.OAuth2RequestFactory;
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+import org.springframework.web.filter.GenericFilterBean;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Parses the authorization request and loads its client once per HTTP request, before other Perun filters.
+ * Results are available through {@link FiltersUtils#getAuthorizationRequest(HttpServletRequest)} and
+ * {@link FiltersUtils#getClient(HttpServletRequest)}, also in controllers the request is forwarded to.
+ * When the request cannot be parsed or the client cannot be loaded, the request continues, filters needing
+ * the client get the error from {@link FiltersUtils#extractClient} and the authorization endpoint reports it.
+ */
+public class AuthorizationRequestParsingFilter extends GenericFilterBean {
+
+	private final static Logger log = LoggerFactory.getLogger(AuthorizationRequestParsingFilter.class);
+
+	@Autowired
+	private OAuth2RequestFactory authRequestFactory;
+
+	@Autowired
+	private ClientDetailsEntityService clientService;
+
+	private static final String REQ_PATTERN = "/authorize";
+	private RequestMatcher requestMatcher = new AntPathRequestMatcher(REQ_PATTERN);
+
+	@Override
+	public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
+			throws IOException, ServletException {
+		HttpServletRequest request = (HttpServletRequest) req;
+		try {
+			FiltersUtils.parseAuthorizationRequest(requestMatcher, request, authRequestFactory, clientService);
+		} catch (RuntimeException e) {
+			//stored in the request and thrown again to filters which need the client
+			log.debug("cannot parse authorization request: {}", e.getMessage());
+		}
+		chain.doFilter(req, res);
+	}
+}
@@ -22,6 +22,11 @@ public class FiltersUtils {
 
 	private static final Logger log = LoggerFactory.getLogger(FiltersUtils.class);
 
+	public static final String AUTHORIZATION_REQUEST_ATTR = "cz.muni.ics.oidc.authorizationRequest";
+	public static final String CLIENT_ATTR = "cz.muni.ics.oidc.client";
+	private static final String PARSED_ATTR = "cz.muni.ics.oidc.authorizationRequestParsed";
+	private static final String FAILURE_ATTR = "cz.muni.ics.oidc.authorizationRequestFailure";
+
 	/**
 	 * Create map of request params in format key = name, value = paramValue.
 	 *
@@ -40,6 +45,68 @@ public class FiltersUtils {
 		return requestMap;
 	}
 
+	/**
+	 * Parses the authorization request and loads its client, the results are stored as request attributes
+	 * and reused by later calls for the same HTTP request, see {@link AuthorizationRequestParsingFilter}.
+	 * When parsing or loading the client fails, the exception is stored too and thrown again by later calls,
+	 * so that filters needing the client do not skip their checks.
+	 *
+	 * @param requestMatcher matcher for matching the request
+	 * @param request request to be matched and containing the authorization request
+	 * @param authRequestFactory authorization request factory
+	 * @param clientService service fetching client details
+	 */
+	@SuppressWarnings("unchecked")
+	static void parseAuthorizationRequest(RequestMatcher requestMatcher, HttpServletRequest request,
+										  OAuth2RequestFactory authRequestFactory,
+										  ClientDetailsEntityService clientService) {
+		RuntimeException failure = (RuntimeException) request.getAttribute(FAILURE_ATTR);
+		if (failure != null) {
+			throw failure;
+		}
+		if (request.getAttribute(PARSED_ATTR) != null) {
+			return;
+		}
+		if (!isAuthorizationRequest(requestMatcher, request)) {
+			request.setAttribute(PARSED_ATTR, Boolean.TRUE);
+			return;
+		}
+
+		try {
+			AuthorizationRequest authRequest = authRequestFactory.createAuthorizationRequest(
+					FiltersUtils.createRequestMap(request.getParameterMap()));
+			request.setAttribute(AUTHORIZATION_REQUEST_ATTR, authRequest);
+
+			if (!Strings.isNullOrEmpty(authRequest.getClientId())) {
+				ClientDetailsEntity client = clientService.loadClientByClientId(authRequest.getClientId());
+				log.debug("Found client: {}", client.getClientId());
+				request.setAttribute(CLIENT_ATTR, client);
+			}
+		} catch (RuntimeException e) {
+			request.setAttribute(FAILURE_ATTR, e);
+			throw e;
+		}
+		request.setAttribute(PARSED_ATTR, Boolean.TRUE);
+	}
+
+	private static boolean isAuthorizationRequest(RequestMatcher requestMatcher, HttpServletRequest request) {
+		return requestMatcher.matches(request) && request.getParameter("response_type") != null;
+	}
+
+	/**
+	 * @return authorization request parsed for this HTTP request, or null
+	 */
+	public static AuthorizationRequest getAuthorizationRequest(HttpServletRequest request) {
+		return (AuthorizationRequest) request.getAttribute(AUTHORIZATION_REQUEST_ATTR);
+	}
+
+	/**
+	 * @return client of the authorization request parsed for this HTTP request, or null
+	 */
+	public static ClientDetailsEntity getClient(HttpServletRequest request) {
+		return (ClientDetailsEntity) request.getAttribute(CLIENT_ATTR);
+	}
+
 	/**
 	 * Extract client from request
 	 *
@@ -47,28 +114,23 @@ public class FiltersUtils {
 	 * @param request request to be matched and containing client
 	 * @param authRequestFactory authorization request factory
 	 * @param clientService service fetching client details
-	 * @return extracted client, null if some error occurs
+	 * @return extracted client, null if the request is not an authorization request or has no client
+	 * @throws RuntimeException when the authorization request cannot be parsed or its client cannot be loaded
 	 */
-	@SuppressWarnings("unchecked")
 	static ClientDetailsEntity extractClient(RequestMatcher requestMatcher, HttpServletRequest request,
 	                                         OAuth2RequestFactory authRequestFactory,
 	                                         ClientDetailsEntityService clientService) {
-		if (!requestMatcher.matches(request) || request.getParameter("response_type") == null) {
+		parseAuthorizationRequest(requestMatcher, request, authRequestFactory, clientService);
+		if (!isAuthorizationRequest(requestMatcher, request)) {
 			return null;
 		}
 
-		AuthorizationRequest authRequest = authRequestFactory.createAuthorizationRequest(
-				FiltersUtils.createRequestMap(request.getParameterMap()));
-
-		ClientDetailsEntity client;
-		if (Strings.isNullOrEmpty(authRequest.getClientId())) {
+		ClientDetailsEntity client = getClient(request);
+		if (client == null) {
 			log.warn("ClientID is null or empty, skip to next filter");
 			return null;
 		}
 
-		client = clientService.loadClientByClientId(authRequest.getClientId());
-		log.debug("Found client: {}", client.getClientId());
-
 		if (Strings.isNullOrEmpty(client.getClientName())) {
 			log.warn("ClientName is null or empty, skip to next filter");
 			return null;
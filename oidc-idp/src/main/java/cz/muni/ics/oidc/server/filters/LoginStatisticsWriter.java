@@ -0,0 +1,292 @@
+package cz.muni.ics.oidc.server.filters;
+
+import cz.muni.ics.oidc.server.metrics.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects login statistics in memory and writes them to the statistics database in the background.
+ * Logins are counted per (day, source IdP, service) and written every flushIntervalSeconds as batched
+ * upserts, names of IdPs and services are written in the same way. Counts which could not be written
+ * are kept for the next flush; pending counts are written when the application stops.
+ * Names already stored in the database are loaded at startup and only new or changed names are written.
+ */
+public class LoginStatisticsWriter implements MetricsSource {
+
+	private final static Logger log = LoggerFactory.getLogger(LoginStatisticsWriter.class);
+
+	private static final int BATCH_SIZE = 500;
+
+	private DataSource dataSource;
+	private String statisticsTableName;
+	private String identityProvidersMapTableName;
+	private String serviceProvidersMapTableName;
+	private long flushIntervalSeconds = 5;
+
+	private final ConcurrentMap<LoginKey, LongAdder> logins = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, String> idpNames = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, String> spNames = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, String> knownIdpNames = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, String> knownSpNames = new ConcurrentHashMap<>();
+	private ScheduledExecutorService scheduler;
+
+	private final LongAdder recorded = new LongAdder();
+	private final LongAdder written = new LongAdder();
+	private final LongAdder namesWritten = new LongAdder();
+	private final LongAdder flushes = new LongAdder();
+	private final LongAdder failedFlushes = new LongAdder();
+
+	public void setDataSource(DataSource dataSource) {
+		this.dataSource = dataSource;
+	}
+
+	public void setStatisticsTableName(String statisticsTableName) {
+		this.statisticsTableName = statisticsTableName;
+	}
+
+	public void setIdentityProvidersMapTableName(String identityProvidersMapTableName) {
+		this.identityProvidersMapTableName = identityProvidersMapTableName;
+	}
+
+	public void setServiceProvidersMapTableName(String serviceProvidersMapTableName) {
+		this.serviceProvidersMapTableName = serviceProvidersMapTableName;
+	}
+
+	public void setFlushIntervalSeconds(long flushIntervalSeconds) {
+		this.flushIntervalSeconds = flushIntervalSeconds;
+	}
+
+	@PostConstruct
+	public void postInit() {
+		loadKnownNames(identityProvidersMapTableName, "entityId", knownIdpNames);
+		loadKnownNames(serviceProvidersMapTableName, "identifier", knownSpNames);
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "login-statistics-writer");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(this::flush, flushIntervalSeconds, flushIntervalSeconds, TimeUnit.SECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			scheduler.awaitTermination(flushIntervalSeconds, TimeUnit.SECONDS);
+		}
+		flush();
+	}
+
+	/**
+	 * Records a login, names are stored only if not empty.
+	 */
+	public void recordLogin(String idpEntityId, String idpName, String spIdentifier, String spName) {
+		LoginKey key = new LoginKey(LocalDate.now(), idpEntityId, spIdentifier);
+		logins.computeIfAbsent(key, k -> new LongAdder()).increment();
+		recorded.increment();
+		recordName(idpEntityId, idpName, knownIdpNames, idpNames);
+		recordName(spIdentifier, spName, knownSpNames, spNames);
+	}
+
+	private static void recordName(String key, String name, Map<String, String> known, Map<String, String> pending) {
+		if (name != null && !name.isEmpty() && !name.equals(known.get(key))) {
+			pending.put(key, name);
+		}
+	}
+
+	/**
+	 * Writes pending counts and names.
+	 */
+	synchronized void flush() {
+		Map<LoginKey, Long> counts = drainLogins();
+		Map<String, String> idps = drain(idpNames);
+		Map<String, String> sps = drain(spNames);
+		if (counts.isEmpty() && idps.isEmpty() && sps.isEmpty()) {
+			return;
+		}
+		try (Connection c = dataSource.getConnection()) {
+			writeCounts(c, counts);
+			writeNames(c, identityProvidersMapTableName, "entityId", idps, knownIdpNames);
+			idps.clear();
+			writeNames(c, serviceProvidersMapTableName, "identifier", sps, knownSpNames);
+			sps.clear();
+			flushes.increment();
+			log.debug("login statistics written");
+		} catch (SQLException | RuntimeException ex) {
+			//a flush must not end with an exception, it would stop the scheduled flushes
+			failedFlushes.increment();
+			log.warn("Statistics weren't updated due to SQLException, will retry.");
+			log.debug("SQLException ({})", ex);
+		} finally {
+			//return what was not written
+			counts.forEach((key, count) -> logins.computeIfAbsent(key, k -> new LongAdder()).add(count));
+			idps.forEach(idpNames::putIfAbsent);
+			sps.forEach(spNames::putIfAbsent);
+		}
+	}
+
+	private Map<LoginKey, Long> drainLogins() {
+		Map<LoginKey, Long> counts = new LinkedHashMap<>();
+		LocalDate yesterday = LocalDate.now().minusDays(1);
+		for (Map.Entry<LoginKey, LongAdder> entry : logins.entrySet()) {
+			LongAdder adder = entry.getValue();
+			//subtracting instead of resetting keeps increments made in the meantime
+			long count = adder.sum();
+			if (count > 0) {
+				adder.add(-count);
+				counts.put(entry.getKey(), count);
+			} else if (entry.getKey().date.isBefore(yesterday)) {
+				logins.remove(entry.getKey(), adder);
+			}
+		}
+		return counts;
+	}
+
+	private static Map<String, String> drain(ConcurrentMap<String, String> names) {
+		Map<String, String> result = new LinkedHashMap<>();
+		for (String key : names.keySet()) {
+			String name = names.remove(key);
+			if (name != null) {
+				result.put(key, name);
+			}
+		}
+		return result;
+	}
+
+	private void writeCounts(Connection c, Map<LoginKey, Long> counts) throws SQLException {
+		List<Map.Entry<LoginKey, Long>> rows = new ArrayList<>(counts.entrySet());
+		for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+			List<Map.Entry<LoginKey, Long>> batch = rows.subList(from, Math.min(from + BATCH_SIZE, rows.size()));
+			StringBuilder query = new StringBuilder("INSERT INTO ").append(statisticsTableName)
+					.append("(year, month, day, sourceIdp, service, count) VALUES ");
+			appendPlaceholders(query, batch.size(), "(?,?,?,?,?,?)");
+			query.append(" ON DUPLICATE KEY UPDATE count = count + VALUES(count)");
+			try (PreparedStatement preparedStatement = c.prepareStatement(query.toString())) {
+				int i = 1;
+				for (Map.Entry<LoginKey, Long> row : batch) {
+					LoginKey key = row.getKey();
+					preparedStatement.setInt(i++, key.date.getYear());
+					preparedStatement.setInt(i++, key.date.getMonthValue());
+					preparedStatement.setInt(i++, key.date.getDayOfMonth());
+					preparedStatement.setString(i++, key.idpEntityId);
+					preparedStatement.setString(i++, key.spIdentifier);
+					preparedStatement.setLong(i++, row.getValue());
+				}
+				preparedStatement.execute();
+			}
+			written.add(batch.stream().mapToLong(Map.Entry::getValue).sum());
+			batch.forEach(row -> counts.remove(row.getKey()));
+		}
+	}
+
+	private void writeNames(Connection c, String tableName, String keyColumn, Map<String, String> names,
+							Map<String, String> known) throws SQLException {
+		List<Map.Entry<String, String>> rows = new ArrayList<>(names.entrySet());
+		for (int from = 0; from < rows.size(); from += BATCH_SIZE) {
+			List<Map.Entry<String, String>> batch = rows.subList(from, Math.min(from + BATCH_SIZE, rows.size()));
+			StringBuilder query = new StringBuilder("INSERT INTO ").append(tableName)
+					.append("(").append(keyColumn).append(", name) VALUES ");
+			appendPlaceholders(query, batch.size(), "(?,?)");
+			query.append(" ON DUPLICATE KEY UPDATE name = VALUES(name)");
+			try (PreparedStatement preparedStatement = c.prepareStatement(query.toString())) {
+				int i = 1;
+				for (Map.Entry<String, String> row : batch) {
+					preparedStatement.setString(i++, row.getKey());
+					preparedStatement.setString(i++, row.getValue());
+				}
+				preparedStatement.execute();
+			}
+			batch.forEach(row -> known.put(row.getKey(), row.getValue()));
+			namesWritten.add(batch.size());
+		}
+	}
+
+	private void loadKnownNames(String tableName, String keyColumn, Map<String, String> known) {
+		String query = "SELECT " + keyColumn + ", name FROM " + tableName;
+		try (Connection c = dataSource.getConnection();
+			 PreparedStatement preparedStatement = c.prepareStatement(query);
+			 ResultSet rs = preparedStatement.executeQuery()) {
+			while (rs.next()) {
+				String name = rs.getString(2);
+				if (name != null) {
+					known.put(rs.getString(1), name);
+				}
+			}
+			log.debug("loaded {} names from {}", known.size(), tableName);
+		} catch (SQLException ex) {
+			//names will be written once more
+			log.warn("cannot load names from {}", tableName);
+			log.debug("SQLException ({})", ex);
+		}
+	}
+
+	private static void appendPlaceholders(StringBuilder query, int rows, String row) {
+		for (int i = 0; i < rows; i++) {
+			query.append(i > 0 ? "," : "").append(row);
+		}
+	}
+
+	@Override
+	public String getMetricsName() {
+		return "login_statistics";
+	}
+
+	@Override
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		result.put("recorded", recorded.sum());
+		result.put("written", written.sum());
+		result.put("pending", logins.values().stream().mapToLong(LongAdder::sum).sum());
+		result.put("namesWritten", namesWritten.sum());
+		result.put("knownNames", knownIdpNames.size() + knownSpNames.size());
+		result.put("flushes", flushes.sum());
+		result.put("failedFlushes", failedFlushes.sum());
+		return result;
+	}
+
+	private static class LoginKey {
+		private final LocalDate date;
+		private final String idpEntityId;
+		private final String spIdentifier;
+
+		LoginKey(LocalDate date, String idpEntityId, String spIdentifier) {
+			this.date = date;
+			this.idpEntityId = idpEntityId;
+			this.spIdentifier = spIdentifier;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			LoginKey loginKey = (LoginKey) o;
+			return date.equals(loginKey.date) && Objects.equals(idpEntityId, loginKey.idpEntityId) &&
+					Objects.equals(spIdentifier, loginKey.spIdentifier);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(date, idpEntityId, spIdentifier);
+		}
+	}
+}
@@ -1,9 +1,12 @@
 package cz.muni.ics.oidc.server.filters;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import cz.muni.ics.oidc.models.Facility;
 import cz.muni.ics.oidc.models.PerunAttribute;
 import cz.muni.ics.oidc.models.PerunUser;
 import cz.muni.ics.oidc.server.PerunPrincipal;
+import cz.muni.ics.oidc.server.caches.InvalidatableCache;
 import cz.muni.ics.oidc.server.configurations.FacilityAttrsConfig;
 import cz.muni.ics.oidc.server.configurations.PerunOidcConfig;
 import cz.muni.ics.oidc.server.connectors.PerunConnector;
@@ -20,6 +23,7 @@ import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 import org.springframework.security.web.util.matcher.RequestMatcher;
 import org.springframework.web.filter.GenericFilterBean;
 
+import javax.annotation.PostConstruct;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
@@ -27,22 +31,21 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
 import java.security.Principal;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Authorization filter. Decides if user can access the service based on his/hers
  * membership in the groups assigned to the Perun facility resources. Facility represents
- * client in this context.
+ * client in this context. Positive decisions are remembered for a short time, denials are never remembered.
  *
  * @author Dominik Frantisek Bucik <bucik@ics.muni.cz>
  */
-public class PerunAuthorizationFilter extends GenericFilterBean {
+public class PerunAuthorizationFilter extends GenericFilterBean implements InvalidatableCache {
 
 	private final static Logger log = LoggerFactory.getLogger(PerunAuthorizationFilter.class);
 	
@@ -52,6 +55,9 @@ public class PerunAuthorizationFilter extends GenericFilterBean {
 	@Autowired
 	private ClientDetailsEntityService clientService;
 
+	@Autowired
+	private RegistrationUrlValidator registrationUrlValidator;
+
 	@Autowired
 	private PerunConnector perunConnector;
 
@@ -65,6 +71,30 @@ public class PerunAuthorizationFilter extends GenericFilterBean {
 	private static final String SHIB_IDENTITY_PROVIDER = "Shib-Identity-Provider";
 	private RequestMatcher requestMatcher = new AntPathRequestMatcher(REQ_PATTERN);
 
+	private long accessCacheTtlSeconds = 30;
+	private long accessCacheMaxSize = 10000;
+	private Cache<AccessKey, Boolean> allowedAccess;
+
+	/**
+	 * Sets how long a positive access decision is remembered, 0 disables remembering.
+	 */
+	public void setAccessCacheTtlSeconds(long accessCacheTtlSeconds) {
+		this.accessCacheTtlSeconds = accessCacheTtlSeconds;
+	}
+
+	public void setAccessCacheMaxSize(long accessCacheMaxSize) {
+		this.accessCacheMaxSize = accessCacheMaxSize;
+	}
+
+	@PostConstruct
+	public void postInit() {
+		if (accessCacheTtlSeconds > 0) {
+			allowedAccess = CacheBuilder.newBuilder()
+					.maximumSize(accessCacheMaxSize)
+					.expireAfterWrite(accessCacheTtlSeconds, TimeUnit.SECONDS)
+					.build();
+		}
+	}
 
 	@Override
 	public void doFilter(ServletRequest req, ServletResponse res, FilterChain chain)
@@ -102,11 +132,18 @@ public class PerunAuthorizationFilter extends GenericFilterBean {
 
 	private void decideAccess(FilterChain chain, Facility facility, PerunUser user, HttpServletRequest request,
 							  HttpServletResponse response, String clientIdentifier) throws IOException, ServletException {
+		AccessKey accessKey = new AccessKey(facility.getId(), user.getId());
+		if (allowedAccess != null && allowedAccess.getIfPresent(accessKey) != null) {
+			log.debug("User {} recently allowed to access facility {}", user.getId(), facility.getId());
+			chain.doFilter(request, response);
+			return;
+		}
 		Map<String, PerunAttribute> facilityAttributes = perunConnector.getFacilityAttributes(
 				facility, facilityAttrsConfig.getMembershipAttrsAsList());
 
 		if (! facilityAttributes.get(facilityAttrsConfig.getCheckGroupMembershipAttr()).valueAsBoolean()) {
 			log.debug("Membership check not requested, skipping filter");
+			rememberAllowed(accessKey);
 			chain.doFilter(request, response);
 			return;
 		}
@@ -115,6 +152,7 @@ public class PerunAuthorizationFilter extends GenericFilterBean {
 		if (canAccess) {
 			// allow access, continue with chain
 			log.info("User allowed to access the service");
+			rememberAllowed(accessKey);
 			chain.doFilter(request, response);
 			return;
 		} else if (facilityAttributes.get(facilityAttrsConfig.getAllowRegistrationAttr()).valueAsBoolean()) {
@@ -125,7 +163,7 @@ public class PerunAuthorizationFilter extends GenericFilterBean {
 				if (customRegUrlAttr != null && customRegUrlAttr.getValue()!= null) {
 					String customRegUrl = facilityAttributes.get(
 							facilityAttrsConfig.getRegistrationURLAttr()).valueAsString();
-					customRegUrl = validateUrl(customRegUrl);
+					customRegUrl = registrationUrlValidator.validate(customRegUrl);
 					if (customRegUrl != null) {
 						// redirect to custom registration URL
 						log.debug("Redirect to custom registration URL: {}", customRegUrl);
@@ -162,34 +200,58 @@ public class PerunAuthorizationFilter extends GenericFilterBean {
 		response.setHeader("Location", redirectUrl);
 	}
 
-	private String validateUrl(String customRegUrl) {
-		if (customRegUrl == null || customRegUrl.isEmpty()) {
-			return null;
+	private void rememberAllowed(AccessKey accessKey) {
+		if (allowedAccess != null) {
+			allowedAccess.put(accessKey, Boolean.TRUE);
 		}
+	}
 
-		if (!customRegUrl.startsWith("http://")) {
-			customRegUrl = "http://" + customRegUrl;
+	@Override
+	public void invalidateUser(long userId) {
+		if (allowedAccess != null) {
+			allowedAccess.asMap().keySet().removeIf(key -> key.userId == userId);
 		}
+	}
 
-		try {
-			URL url = new URL(customRegUrl);
-			URLConnection conn = url.openConnection();
-			conn.connect();
-			return customRegUrl;
-		} catch (IOException e) {
-			//this is ok, we can try add https:// to the url
+	@Override
+	public void invalidateFacility(long facilityId) {
+		if (allowedAccess != null) {
+			allowedAccess.asMap().keySet().removeIf(key -> key.facilityId == facilityId);
 		}
+	}
 
-		customRegUrl = customRegUrl.replace("http://", "https://");
+	@Override
+	public void invalidateGroup(long groupId) {
+		//access is remembered per user, members of the group are invalidated by invalidateUser
+	}
 
-		try {
-			URL url = new URL(customRegUrl);
-			URLConnection conn = url.openConnection();
-			conn.connect();
-			return customRegUrl;
-		} catch (IOException e) {
-			return null;
+	@Override
+	public void invalidateAll() {
+		if (allowedAccess != null) {
+			allowedAccess.invalidateAll();
 		}
 	}
 
+	private static class AccessKey {
+		private final long facilityId;
+		private final long userId;
+
+		AccessKey(long facilityId, long userId) {
+			this.facilityId = facilityId;
+			this.userId = userId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) return true;
+			if (o == null || getClass() != o.getClass()) return false;
+			AccessKey accessKey = (AccessKey) o;
+			return facilityId == accessKey.facilityId && userId == accessKey.userId;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(facilityId, userId);
+		}
+	}
 }
@@ -0,0 +1,231 @@
+package cz.muni.ics.oidc.server.filters;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import cz.muni.ics.oidc.server.metrics.MetricsSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Checks that custom registration URLs of facilities can be connected to, first over http:// and then over https://.
+ * Checks run in background threads with strict timeouts and their results are remembered. A request gets
+ * the last known result immediately, a result older than ttlSeconds is checked again in the background.
+ * Only the first check of a URL is waited for, at most firstWaitMillis.
+ */
+public class RegistrationUrlValidator implements MetricsSource {
+
+	private final static Logger log = LoggerFactory.getLogger(RegistrationUrlValidator.class);
+
+	private static final int MAX_WAITING = 100;
+
+	private long ttlSeconds = 300;
+	private long maxSize = 1000;
+	private int connectTimeoutMillis = 2000;
+	private int readTimeoutMillis = 2000;
+	private long firstWaitMillis = 5000;
+	private int threads = 2;
+
+	private Cache<String, Result> results;
+	private final ConcurrentMap<String, CompletableFuture<Result>> running = new ConcurrentHashMap<>();
+	private ThreadPoolExecutor executor;
+
+	private final LongAdder validations = new LongAdder();
+	private final LongAdder validationNanos = new LongAdder();
+	private final LongAccumulator maxValidationNanos = new LongAccumulator(Math::max, 0);
+	private final LongAdder invalid = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder firstWaitTimeouts = new LongAdder();
+
+	public void setTtlSeconds(long ttlSeconds) {
+		this.ttlSeconds = ttlSeconds;
+	}
+
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	public void setFirstWaitMillis(long firstWaitMillis) {
+		this.firstWaitMillis = firstWaitMillis;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	@PostConstruct
+	public void postInit() {
+		//unused URLs are forgotten, used ones are kept and checked again after ttlSeconds
+		results = CacheBuilder.newBuilder()
+				.maximumSize(maxSize)
+				.expireAfterAccess(1, TimeUnit.DAYS)
+				.build();
+		AtomicInteger threadNumber = new AtomicInteger();
+		executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_WAITING), r -> {
+			Thread t = new Thread(r, "registration-url-check-" + threadNumber.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}, new ThreadPoolExecutor.AbortPolicy());
+		executor.allowCoreThreadTimeOut(true);
+		log.debug("registration URLs checked every {} s with timeouts {}/{} ms", ttlSeconds, connectTimeoutMillis, readTimeoutMillis);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Gets the registration URL with scheme which can be connected to.
+	 *
+	 * @param customRegUrl URL from facility attribute, possibly without scheme
+	 * @return URL with scheme, or null if the URL cannot be connected to or its first check did not finish in time
+	 */
+	public String validate(String customRegUrl) {
+		if (customRegUrl == null || customRegUrl.isEmpty()) {
+			return null;
+		}
+		Result last = results.getIfPresent(customRegUrl);
+		if (last != null) {
+			if (System.currentTimeMillis() - last.checkedAt > TimeUnit.SECONDS.toMillis(ttlSeconds)) {
+				check(customRegUrl);
+			}
+			return last.url;
+		}
+		try {
+			Result result = check(customRegUrl).get(firstWaitMillis, TimeUnit.MILLISECONDS);
+			return result != null ? result.url : null;
+		} catch (TimeoutException e) {
+			firstWaitTimeouts.increment();
+			log.warn("check of registration URL {} not finished in {} ms", customRegUrl, firstWaitMillis);
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			//checks do not throw
+			return null;
+		}
+	}
+
+	/**
+	 * Starts a check of the URL, unless one is already running.
+	 */
+	private CompletableFuture<Result> check(String customRegUrl) {
+		CompletableFuture<Result> future = new CompletableFuture<>();
+		CompletableFuture<Result> existing = running.putIfAbsent(customRegUrl, future);
+		if (existing != null) {
+			return existing;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					Result result = new Result(connectableUrl(customRegUrl), System.currentTimeMillis());
+					results.put(customRegUrl, result);
+					future.complete(result);
+				} finally {
+					running.remove(customRegUrl, future);
+					future.complete(null);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			log.warn("too many registration URL checks waiting, skipping {}", customRegUrl);
+			running.remove(customRegUrl, future);
+			future.complete(null);
+		}
+		return future;
+	}
+
+	private String connectableUrl(String customRegUrl) {
+		long start = System.nanoTime();
+		String url = customRegUrl.startsWith("http://") ? customRegUrl : "http://" + customRegUrl;
+		String result = canConnect(url) ? url : null;
+		if (result == null) {
+			//this is ok, we can try add https:// to the url
+			url = url.replace("http://", "https://");
+			result = canConnect(url) ? url : null;
+		}
+		long nanos = System.nanoTime() - start;
+		validations.increment();
+		validationNanos.add(nanos);
+		maxValidationNanos.accumulate(nanos);
+		if (result == null) {
+			invalid.increment();
+			log.info("registration URL {} cannot be connected to", customRegUrl);
+		}
+		return result;
+	}
+
+	private boolean canConnect(String customRegUrl) {
+		try {
+			URLConnection conn = new URL(customRegUrl).openConnection();
+			conn.setConnectTimeout(connectTimeoutMillis);
+			conn.setReadTimeout(readTimeoutMillis);
+			conn.connect();
+			return true;
+		} catch (IOException e) {
+			log.debug("cannot connect to {}: {}", customRegUrl, e.getMessage());
+			return false;
+		}
+	}
+
+	@Override
+	public String getMetricsName() {
+		return "registration_urls";
+	}
+
+	@Override
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		long count = validations.sum();
+		result.put("validations", count);
+		result.put("validationAvgMs", count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(validationNanos.sum() / count));
+		result.put("validationMaxMs", TimeUnit.NANOSECONDS.toMillis(maxValidationNanos.get()));
+		result.put("failures", invalid.sum());
+		result.put("rejected", rejected.sum());
+		result.put("firstWaitTimeouts", firstWaitTimeouts.sum());
+		result.put("known", results != null ? results.size() : 0);
+		result.put("running", running.size());
+		return result;
+	}
+
+	private static class Result {
+		private final String url;
+		private final long checkedAt;
+
+		Result(String url, long checkedAt) {
+			this.url = url;
+			this.checkedAt = checkedAt;
+		}
+	}
+}
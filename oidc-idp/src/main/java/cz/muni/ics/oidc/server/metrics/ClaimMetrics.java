@@ -0,0 +1,144 @@
+package cz.muni.ics.oidc.server.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import cz.muni.ics.oidc.server.claims.CachingClaimSource;
+import cz.muni.ics.oidc.server.claims.ClaimSource;
+import cz.muni.ics.oidc.server.claims.PerunCustomClaimDefinition;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timing and size of UserInfo loads and of values of individual custom claims.
+ * Custom claims are produced lazily after the load, so the load time does not include them. It is split
+ * into fetching user attributes from Perun and the rest. Claims are timed when they are produced, split into
+ * the claim source and modifiers; claimsAvgMsPerLoad is the time of all produced claims divided by the number
+ * of loads. Sizes are numbers of array elements, other values have size 1.
+ * Claim sources implementing {@link MetricsSource} add their own metrics, also when wrapped by {@link CachingClaimSource}.
+ */
+public class ClaimMetrics implements MetricsSource {
+
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder loadNanos = new LongAdder();
+	private final LongAdder fetchNanos = new LongAdder();
+	private final LongAccumulator maxLoadNanos = new LongAccumulator(Math::max, 0);
+	private final ConcurrentMap<String, ClaimStats> claims = new ConcurrentHashMap<>();
+
+	@Override
+	public String getMetricsName() {
+		return "claims";
+	}
+
+	/**
+	 * Records creation of UserInfo without custom claims, which are produced later.
+	 *
+	 * @param fetchNanos time of fetching user attributes from Perun
+	 * @param totalNanos time of the whole load
+	 */
+	public void recordLoadWithoutClaims(long fetchNanos, long totalNanos) {
+		loads.increment();
+		this.fetchNanos.add(fetchNanos);
+		loadNanos.add(totalNanos);
+		maxLoadNanos.accumulate(totalNanos);
+	}
+
+	/**
+	 * Records production of a claim value.
+	 *
+	 * @param claim claim definition
+	 * @param produceNanos time spent in the claim source
+	 * @param modifyNanos time spent in modifiers
+	 * @param value resulting value or null
+	 */
+	public void recordClaim(PerunCustomClaimDefinition claim, long produceNanos, long modifyNanos, JsonNode value) {
+		ClaimStats stats = claims.computeIfAbsent(claim.getClaim(), name -> new ClaimStats(claim));
+		stats.count.increment();
+		stats.produceNanos.add(produceNanos);
+		stats.maxProduceNanos.accumulate(produceNanos);
+		stats.modifyNanos.add(modifyNanos);
+		if (value == null || value.isNull()) {
+			stats.nulls.increment();
+		} else {
+			stats.elements.add(value.isArray() ? value.size() : 1);
+		}
+	}
+
+	/**
+	 * Records a claim source or modifier which threw an exception.
+	 */
+	public void recordClaimError(PerunCustomClaimDefinition claim) {
+		claims.computeIfAbsent(claim.getClaim(), name -> new ClaimStats(claim)).errors.increment();
+	}
+
+	@Override
+	public Map<String, Object> getMetrics() {
+		Map<String, Object> result = new LinkedHashMap<>();
+		long loadCount = loads.sum();
+		result.put("loads", loadCount);
+		result.put("loadWithoutClaimsAvgMs", avgMillis(loadNanos.sum(), loadCount));
+		result.put("loadWithoutClaimsMaxMs", millis(maxLoadNanos.get()));
+		result.put("perunFetchAvgMs", avgMillis(fetchNanos.sum(), loadCount));
+		long claimNanos = 0;
+		Map<String, Object> claimResults = new TreeMap<>();
+		for (Map.Entry<String, ClaimStats> entry : claims.entrySet()) {
+			ClaimStats stats = entry.getValue();
+			claimNanos += stats.produceNanos.sum() + stats.modifyNanos.sum();
+			claimResults.put(entry.getKey(), stats.toMap());
+		}
+		result.put("claimsAvgMsPerLoad", avgMillis(claimNanos, loadCount));
+		result.put("claims", claimResults);
+		return result;
+	}
+
+	private static double avgMillis(long nanos, long count) {
+		return count == 0 ? 0 : millis(nanos / count);
+	}
+
+	private static double millis(long nanos) {
+		return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+	}
+
+	private static class ClaimStats {
+		private final PerunCustomClaimDefinition definition;
+		private final LongAdder count = new LongAdder();
+		private final LongAdder nulls = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder elements = new LongAdder();
+		private final LongAdder produceNanos = new LongAdder();
+		private final LongAdder modifyNanos = new LongAdder();
+		private final LongAccumulator maxProduceNanos = new LongAccumulator(Math::max, 0);
+
+		ClaimStats(PerunCustomClaimDefinition definition) {
+			this.definition = definition;
+		}
+
+		Map<String, Object> toMap() {
+			long n = count.sum();
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("count", n);
+			map.put("errors", errors.sum());
+			map.put("nullRate", n == 0 ? 0 : nulls.sum() / (double) n);
+			map.put("produceAvgMs", avgMillis(produceNanos.sum(), n));
+			map.put("produceMaxMs", millis(maxProduceNanos.get()));
+			map.put("modifyAvgMs", avgMillis(modifyNanos.sum(), n));
+			long nonNull = n - nulls.sum();
+			map.put("avgSize", nonNull == 0 ? 0 : elements.sum() / (double) nonNull);
+			map.put("trimmedValues", definition.getTrimmedValues());
+			map.put("trimmedElements", definition.getTrimmedElements());
+			ClaimSource source = definition.getClaimSource();
+			while (source instanceof CachingClaimSource) {
+				source = ((CachingClaimSource) source).getDelegate();
+			}
+			if (source instanceof MetricsSource) {
+				map.put("source", ((MetricsSource) source).getMetrics());
+			}
+			return map;
+		}
+	}
+}
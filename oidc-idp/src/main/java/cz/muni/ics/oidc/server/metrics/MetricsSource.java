@@ -0,0 +1,19 @@
+package cz.muni.ics.oidc.server.metrics;
+
+import java.util.Map;
+
+/**
+ * Component exporting its metrics through the administration API.
+ */
+public interface MetricsSource {
+
+	/**
+	 * @return name under which the metrics are exported
+	 */
+	String getMetricsName();
+
+	/**
+	 * @return current values of metrics, must be serializable to JSON
+	 */
+	Map<String, Object> getMetrics();
+}
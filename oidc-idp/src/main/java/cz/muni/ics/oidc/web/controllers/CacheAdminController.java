@@ -0,0 +1,75 @@
+package cz.muni.ics.oidc.web.controllers;
+
+import cz.muni.ics.oidc.server.caches.CacheInvalidationService;
+import cz.muni.ics.oidc.server.claims.ValueMemo;
+import org.mitre.openid.connect.view.JsonEntityView;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.security.Principal;
+
+/**
+ * API for administrators to evict stale data from caches.
+ */
+@Controller
+@RequestMapping("/" + CacheAdminController.URL)
+@PreAuthorize("hasRole('ROLE_ADMIN')")
+public class CacheAdminController {
+
+	private final static Logger log = LoggerFactory.getLogger(CacheAdminController.class);
+
+	public static final String URL = "api/caches";
+
+	@Autowired
+	private CacheInvalidationService cacheInvalidationService;
+
+	@Autowired
+	private ValueMemo valueMemo;
+
+	@PostMapping("/invalidate/user/{id}")
+	public String invalidateUser(@PathVariable("id") long id, Model model, Principal p) {
+		log.info("admin {} invalidates user {}", p.getName(), id);
+		cacheInvalidationService.invalidateUser(id);
+		return stats(model);
+	}
+
+	@PostMapping("/invalidate/facility/{id}")
+	public String invalidateFacility(@PathVariable("id") long id, Model model, Principal p) {
+		log.info("admin {} invalidates facility {}", p.getName(), id);
+		cacheInvalidationService.invalidateFacility(id);
+		return stats(model);
+	}
+
+	@PostMapping("/invalidate/group/{id}")
+	public String invalidateGroup(@PathVariable("id") long id, Model model, Principal p) {
+		log.info("admin {} invalidates group {}", p.getName(), id);
+		cacheInvalidationService.invalidateGroup(id);
+		return stats(model);
+	}
+
+	@PostMapping("/invalidate/all")
+	public String invalidateAll(Model model, Principal p) {
+		log.info("admin {} invalidates all caches", p.getName());
+		cacheInvalidationService.invalidateAll();
+		return stats(model);
+	}
+
+	@GetMapping("/memo")
+	public String memoStats(Model model) {
+		model.addAttribute(JsonEntityView.ENTITY, valueMemo.getStats());
+		return JsonEntityView.VIEWNAME;
+	}
+
+	private String stats(Model model) {
+		model.addAttribute(JsonEntityView.ENTITY, cacheInvalidationService.getStats());
+		return JsonEntityView.VIEWNAME;
+	}
+}
@@ -0,0 +1,54 @@
+package cz.muni.ics.oidc.web.controllers;
+
+import cz.muni.ics.oidc.server.metrics.MetricsSource;
+import org.mitre.openid.connect.view.HttpCodeView;
+import org.mitre.openid.connect.view.JsonEntityView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * API for administrators to read metrics of components implementing {@link MetricsSource}.
+ */
+@Controller
+@RequestMapping("/" + MetricsAdminController.URL)
+@PreAuthorize("hasRole('ROLE_ADMIN')")
+public class MetricsAdminController {
+
+	public static final String URL = "api/metrics";
+
+	@Autowired(required = false)
+	private List<MetricsSource> sources = Collections.emptyList();
+
+	@GetMapping
+	public String all(Model model) {
+		Map<String, Object> metrics = new TreeMap<>();
+		for (MetricsSource source : sources) {
+			metrics.put(source.getMetricsName(), source.getMetrics());
+		}
+		model.addAttribute(JsonEntityView.ENTITY, metrics);
+		return JsonEntityView.VIEWNAME;
+	}
+
+	@GetMapping("/{name}")
+	public String one(@PathVariable("name") String name, Model model) {
+		for (MetricsSource source : sources) {
+			if (source.getMetricsName().equals(name)) {
+				model.addAttribute(JsonEntityView.ENTITY, source.getMetrics());
+				return JsonEntityView.VIEWNAME;
+			}
+		}
+		model.addAttribute(HttpCodeView.CODE, HttpStatus.NOT_FOUND);
+		return HttpCodeView.VIEWNAME;
+	}
+}
@@ -4,9 +4,11 @@ package cz.muni.ics.oidc.web.controllers;
 import com.google.common.collect.Sets;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
+import cz.muni.ics.oidc.server.ClaimsProjection;
 import cz.muni.ics.oidc.server.PerunScopeClaimTranslationService;
 import cz.muni.ics.oidc.server.PerunUserInfo;
 import cz.muni.ics.oidc.server.configurations.PerunOidcConfig;
+import cz.muni.ics.oidc.server.filters.FiltersUtils;
 import org.mitre.oauth2.model.ClientDetailsEntity;
 import org.mitre.oauth2.model.SystemScope;
 import org.mitre.oauth2.service.ClientDetailsEntityService;
@@ -69,10 +71,13 @@ public class PerunOAuthConfirmationController{
     @RequestMapping(value = "/oauth/confirm_access", params = { "client_id" })
     public String confirmAccess(Map<String, Object> model, HttpServletRequest req, Principal p,
                                 @ModelAttribute("authorizationRequest") AuthorizationRequest authRequest) {
-        ClientDetailsEntity client;
+        //client loaded by filters for /authorize, which forwards here
+        ClientDetailsEntity client = FiltersUtils.getClient(req);
 
         try {
-            client = clientService.loadClientByClientId(authRequest.getClientId());
+            if (client == null || !client.getClientId().equals(authRequest.getClientId())) {
+                client = clientService.loadClientByClientId(authRequest.getClientId());
+            }
         } catch (OAuth2Exception e) {
             log.error("confirmAccess: OAuth2Exception was thrown when attempting to load client", e);
             model.put(HttpCodeView.CODE, HttpStatus.NOT_FOUND);
@@ -129,7 +134,7 @@ public class PerunOAuthConfirmationController{
 
         Map<String, Map<String, Object>> claimsForScopes = new LinkedHashMap<>();
         if (user != null) {
-            JsonObject userJson = user.toJson();
+            JsonObject userJson = ClaimsProjection.of(user, authRequest.getScope(), scopeClaimTranslationService).getJson();
 
             for (SystemScope systemScope : sortedScopes) {
                 Map<String, Object> claimValues = new LinkedHashMap<>();
@@ -0,0 +1,11 @@
+--
+-- Columns of table user_info used by the shared cache of UserInfo (PerunUserInfoDatabaseCache), MySQL/MariaDB
+-- Run once, MySQL does not support IF NOT EXISTS for columns and indexes.
+--
+
+ALTER TABLE user_info MODIFY COLUMN src MEDIUMTEXT;
+ALTER TABLE user_info ADD COLUMN perun_user_id BIGINT;
+ALTER TABLE user_info ADD COLUMN client_id VARCHAR(256);
+ALTER TABLE user_info ADD COLUMN version BIGINT;
+ALTER TABLE user_info ADD COLUMN expires_at BIGINT;
+CREATE UNIQUE INDEX user_info_perun_user_client ON user_info (perun_user_id, client_id);
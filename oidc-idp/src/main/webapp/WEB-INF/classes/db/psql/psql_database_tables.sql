@@ -264,7 +264,12 @@ CREATE TABLE IF NOT EXISTS user_info (
 	address_id VARCHAR(256),
 	updated_time VARCHAR(256),
 	birthdate VARCHAR(256),
-	src VARCHAR(4096)
+	src TEXT,
+	perun_user_id BIGINT,
+	client_id VARCHAR(256),
+	version BIGINT,
+	expires_at BIGINT,
+	UNIQUE (perun_user_id, client_id)
 );
 
 CREATE TABLE IF NOT EXISTS whitelisted_site (
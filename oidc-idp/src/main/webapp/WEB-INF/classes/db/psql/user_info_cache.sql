@@ -0,0 +1,10 @@
+--
+-- Columns of table user_info used by the shared cache of UserInfo (PerunUserInfoDatabaseCache), PostgreSQL 9.6 or newer
+--
+
+ALTER TABLE user_info ALTER COLUMN src TYPE TEXT;
+ALTER TABLE user_info ADD COLUMN IF NOT EXISTS perun_user_id BIGINT;
+ALTER TABLE user_info ADD COLUMN IF NOT EXISTS client_id VARCHAR(256);
+ALTER TABLE user_info ADD COLUMN IF NOT EXISTS version BIGINT;
+ALTER TABLE user_info ADD COLUMN IF NOT EXISTS expires_at BIGINT;
+CREATE UNIQUE INDEX IF NOT EXISTS user_info_perun_user_client ON user_info (perun_user_id, client_id);
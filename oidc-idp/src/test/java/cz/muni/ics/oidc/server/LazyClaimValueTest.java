@@ -0,0 +1,98 @@
+package cz.muni.ics.oidc.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.base.Supplier;
+import cz.muni.ics.oidc.server.claims.PerunCustomClaimDefinition;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LazyClaimValueTest {
+
+	private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void dependentIsFinalWhenDependencyIsProduced() {
+		LazyClaimValue dependency = value("dependency", () -> TextNode.valueOf("a"), null);
+		LazyClaimValue dependent = dependentOn(dependency);
+
+		assertEquals("a!", dependent.get().asText());
+		assertTrue(dependent.isFinal());
+	}
+
+	@Test
+	public void dependentOfFailedDependencyIsNotFinal() {
+		AtomicBoolean broken = new AtomicBoolean(true);
+		LazyClaimValue dependency = value("dependency", () -> {
+			if (broken.get()) {
+				throw new IllegalStateException("source is down");
+			}
+			return TextNode.valueOf("a");
+		}, null);
+		LazyClaimValue dependent = dependentOn(dependency);
+
+		assertNull(dependent.get());
+		assertFalse(dependency.isFinal());
+		assertFalse(dependent.isFinal());
+
+		broken.set(false);
+		assertEquals("a!", dependent.get().asText());
+		assertTrue(dependency.isFinal());
+		assertTrue(dependent.isFinal());
+	}
+
+	@Test
+	public void dependentOfDependencyNotProducedInTimeIsNotFinal() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		PerunCustomClaimDefinition definition = new PerunCustomClaimDefinition("profile", "dependency", null, null);
+		definition.setTimeout(50, PerunCustomClaimDefinition.OnTimeout.OMIT, 10);
+		LazyClaimValue dependency = new LazyClaimValue(definition, 123L, "client1", () -> {
+			started.countDown();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return TextNode.valueOf("a");
+		}, executor, null);
+		dependency.start();
+		started.await();
+		LazyClaimValue dependent = dependentOn(dependency);
+
+		assertNull(dependent.get());
+		assertFalse(dependent.isFinal());
+
+		release.countDown();
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.SECONDS);
+		assertEquals("a!", dependent.get().asText());
+		assertTrue(dependent.isFinal());
+	}
+
+	private static LazyClaimValue dependentOn(LazyClaimValue dependency) {
+		return value("dependent", () -> TextNode.valueOf(dependency.getForDependent().asText() + "!"), null);
+	}
+
+	private static LazyClaimValue value(String claim, Supplier<JsonNode> producer,
+										ExecutorService executor) {
+		PerunCustomClaimDefinition definition = new PerunCustomClaimDefinition("profile", claim, null, null);
+		return new LazyClaimValue(definition, 123L, "client1", producer, executor, null);
+	}
+}
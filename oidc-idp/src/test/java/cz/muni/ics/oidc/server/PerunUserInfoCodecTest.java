@@ -0,0 +1,110 @@
+package cz.muni.ics.oidc.server;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.TextNode;
+import cz.muni.ics.oidc.server.claims.PerunCustomClaimDefinition;
+import org.junit.Test;
+import org.mitre.openid.connect.model.Address;
+import org.mitre.openid.connect.model.DefaultAddress;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class PerunUserInfoCodecTest {
+
+	static PerunUserInfo fullUserInfo() {
+		PerunUserInfo ui = new PerunUserInfo();
+		ui.setId(123L);
+		ui.setSub("sub@example.org");
+		ui.setPreferredUsername("jdoe");
+		ui.setGivenName("John");
+		ui.setFamilyName("Doe");
+		ui.setMiddleName("M.");
+		ui.setName("John M. Doe");
+		ui.setNickname("Johnny");
+		ui.setProfile("https://example.org/jdoe");
+		ui.setPicture("https://example.org/jdoe.png");
+		ui.setWebsite("https://jdoe.example.org");
+		ui.setEmail("jdoe@example.org");
+		ui.setEmailVerified(true);
+		ui.setGender("male");
+		ui.setZoneinfo("Europe/Prague");
+		ui.setLocale("cs-CZ");
+		ui.setPhoneNumber("+420 123 456 789");
+		ui.setPhoneNumberVerified(false);
+		ui.setUpdatedTime("1571234567");
+		ui.setBirthdate("1975-01-01");
+		Address address = new DefaultAddress();
+		address.setFormatted("Botanická 68a, Brno");
+		address.setStreetAddress("Botanická 68a");
+		address.setLocality("Brno");
+		address.setRegion("South Moravia");
+		address.setPostalCode("60200");
+		address.setCountry("CZ");
+		ui.setAddress(address);
+		ui.setCustomClaim("eduperson_entitlement", JsonNodeFactory.instance.arrayNode().add("a").add("b"));
+		ui.setCustomClaim("affiliation", TextNode.valueOf("member@example.org"));
+		return ui;
+	}
+
+	@Test
+	public void jsonRoundTripKeepsAllClaims() throws Exception {
+		PerunUserInfo ui = fullUserInfo();
+		PerunUserInfo restored = PerunUserInfoCodec.fromJsonString(PerunUserInfoCodec.toJsonString(ui));
+		assertSameUserInfo(ui, restored);
+	}
+
+	@Test
+	public void bytesRoundTripKeepsAllClaims() {
+		PerunUserInfo ui = fullUserInfo();
+		PerunUserInfo restored = PerunUserInfoCodec.fromBytes(PerunUserInfoCodec.toBytes(ui));
+		assertSameUserInfo(ui, restored);
+	}
+
+	@Test
+	public void roundTripKeepsMissingValuesMissing() throws Exception {
+		PerunUserInfo ui = new PerunUserInfo();
+		ui.setSub("sub");
+		PerunUserInfo restored = PerunUserInfoCodec.fromJsonString(PerunUserInfoCodec.toJsonString(ui));
+		assertNull(restored.getEmailVerified());
+		assertNull(restored.getPhoneNumberVerified());
+		assertNull(restored.getAddress());
+		assertEquals(ui.toJson(), restored.toJson());
+	}
+
+	@Test
+	public void onlyProducedClaimsAreSerialized() throws Exception {
+		PerunUserInfo ui = fullUserInfo();
+		AtomicInteger produced = new AtomicInteger();
+		PerunCustomClaimDefinition definition = new PerunCustomClaimDefinition("profile", "lazy", null, null);
+		ui.setLazyCustomClaim("lazy", new LazyClaimValue(definition, 123L, "client1", () -> {
+			produced.incrementAndGet();
+			return TextNode.valueOf("value");
+		}, null, null));
+
+		PerunUserInfo restored = PerunUserInfoCodec.fromJsonString(PerunUserInfoCodec.toJsonString(ui));
+		assertEquals(0, produced.get());
+		assertNull(restored.getCustomClaim("lazy"));
+		assertEquals(Collections.singleton("lazy"), restored.getPendingCustomClaims());
+
+		assertEquals("value", ui.getCustomClaim("lazy").asText());
+		restored = PerunUserInfoCodec.fromJsonString(PerunUserInfoCodec.toJsonString(ui));
+		assertEquals(1, produced.get());
+		assertEquals("value", restored.getCustomClaim("lazy").asText());
+		assertTrue(restored.getPendingCustomClaims().isEmpty());
+	}
+
+	static void assertSameUserInfo(PerunUserInfo expected, PerunUserInfo actual) {
+		assertEquals(expected.getId(), actual.getId());
+		assertEquals(expected.getEmailVerified(), actual.getEmailVerified());
+		assertEquals(expected.getPhoneNumberVerified(), actual.getPhoneNumberVerified());
+		assertEquals(expected.getAddress().getStreetAddress(), actual.getAddress().getStreetAddress());
+		assertEquals(expected.getAddress().getCountry(), actual.getAddress().getCountry());
+		assertEquals(expected.getCustomClaim("eduperson_entitlement"), actual.getCustomClaim("eduperson_entitlement"));
+		assertEquals(expected.toJson(), actual.toJson());
+	}
+}
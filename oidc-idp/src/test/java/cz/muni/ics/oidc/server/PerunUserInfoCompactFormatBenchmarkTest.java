@@ -0,0 +1,89 @@
+package cz.muni.ics.oidc.server;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the compact cache format of UserInfo with the object form: size of the bytes, approximate
+ * heap taken by decoded objects and time of encoding and decoding. Results are logged, the test fails only
+ * when the compact form is not smaller than the plain JSON.
+ */
+public class PerunUserInfoCompactFormatBenchmarkTest {
+
+	private final static Logger log = LoggerFactory.getLogger(PerunUserInfoCompactFormatBenchmarkTest.class);
+
+	private static final int ENTITLEMENTS = 200;
+	private static final int ENTRIES = 2000;
+	private static final int ROUNDS = 2000;
+
+	/**
+	 * UserInfo of a user in many groups, entitlements are the largest claim in practice.
+	 */
+	static PerunUserInfo largeUserInfo() {
+		PerunUserInfo ui = PerunUserInfoCodecTest.fullUserInfo();
+		ArrayNode entitlements = JsonNodeFactory.instance.arrayNode();
+		for (int i = 0; i < ENTITLEMENTS; i++) {
+			entitlements.add("urn:geant:elixir-europe.org:group:elixir:project" + i + ":members#perun.elixir-czech.cz");
+		}
+		ui.setCustomClaim("eduperson_entitlement", entitlements);
+		return ui;
+	}
+
+	@Test
+	public void compactFormIsSmallerAndFastEnough() throws Exception {
+		PerunUserInfo ui = largeUserInfo();
+		byte[] bytes = PerunUserInfoCodec.toBytes(ui);
+		int jsonBytes = PerunUserInfoCodec.toJsonString(ui).getBytes(StandardCharsets.UTF_8).length;
+		assertEquals(ui.toJson(), PerunUserInfoCodec.fromBytes(bytes).toJson());
+
+		//warm up before timing
+		timeRounds(ui, ROUNDS);
+		long[] nanos = timeRounds(ui, ROUNDS);
+		long heapPerObject = heapPerObject(bytes);
+
+		log.info("compact UserInfo with {} entitlements: {} B compact, {} B JSON, ~{} B heap as object",
+				ENTITLEMENTS, bytes.length, jsonBytes, heapPerObject);
+		log.info("encode {} us, decode {} us per UserInfo", nanos[0] / ROUNDS / 1000.0, nanos[1] / ROUNDS / 1000.0);
+		assertTrue("compact form must be smaller than JSON", bytes.length < jsonBytes);
+	}
+
+	private static long[] timeRounds(PerunUserInfo ui, int rounds) {
+		long encode = 0;
+		long decode = 0;
+		for (int i = 0; i < rounds; i++) {
+			long start = System.nanoTime();
+			byte[] bytes = PerunUserInfoCodec.toBytes(ui);
+			long encoded = System.nanoTime();
+			PerunUserInfoCodec.fromBytes(bytes);
+			decode += System.nanoTime() - encoded;
+			encode += encoded - start;
+		}
+		return new long[]{encode, decode};
+	}
+
+	/**
+	 * Estimates heap taken by a decoded UserInfo from the growth of used memory, only for the log.
+	 */
+	private static long heapPerObject(byte[] bytes) {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		List<PerunUserInfo> objects = new ArrayList<>(ENTRIES);
+		for (int i = 0; i < ENTRIES; i++) {
+			objects.add(PerunUserInfoCodec.fromBytes(bytes));
+		}
+		System.gc();
+		long after = runtime.totalMemory() - runtime.freeMemory();
+		return objects.isEmpty() ? 0 : (after - before) / objects.size();
+	}
+}
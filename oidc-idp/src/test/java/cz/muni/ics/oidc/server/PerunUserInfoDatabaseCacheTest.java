@@ -0,0 +1,218 @@
+package cz.muni.ics.oidc.server;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the database cache against in-memory H2 with the table created by the scripts in db/.
+ */
+public class PerunUserInfoDatabaseCacheTest {
+
+	private static final String DB_SCRIPTS = "src/main/webapp/WEB-INF/classes/db/";
+
+	/**
+	 * Table user_info as created by MITREid before the cache columns were added.
+	 */
+	private static final String ORIGINAL_TABLE = "CREATE TABLE user_info (id INT AUTO_INCREMENT PRIMARY KEY, " +
+			"sub VARCHAR(256), preferred_username VARCHAR(256), name VARCHAR(256), email VARCHAR(256), " +
+			"email_verified BOOLEAN, src VARCHAR(4096))";
+
+	private static final AtomicInteger databases = new AtomicInteger();
+
+	private JdbcDataSource dataSource;
+	private PerunUserInfoDatabaseCache cache;
+
+	@Before
+	public void setUp() {
+		dataSource = new JdbcDataSource();
+		dataSource.setURL("jdbc:h2:mem:userinfo" + databases.incrementAndGet() + ";MODE=PostgreSQL;DB_CLOSE_DELAY=-1");
+		cache = new PerunUserInfoDatabaseCache();
+		cache.setDataSource(dataSource);
+		cache.setEnabled(true);
+		cache.setVersion(1);
+	}
+
+	@After
+	public void tearDown() throws SQLException {
+		execute("SHUTDOWN");
+	}
+
+	@Test
+	public void storesAndLoadsUserInfo() throws Exception {
+		createTable();
+		PerunUserInfo ui = PerunUserInfoCodecTest.fullUserInfo();
+		cache.put(123L, "client1", ui);
+		PerunUserInfoCodecTest.assertSameUserInfo(ui, cache.get(123L, "client1"));
+		assertNull(cache.get(123L, "client2"));
+		assertNull(cache.get(124L, "client1"));
+	}
+
+	@Test
+	public void storesUserInfoWithoutClient() throws Exception {
+		createTable();
+		cache.put(123L, null, PerunUserInfoCodecTest.fullUserInfo());
+		assertNotNull(cache.get(123L, null));
+		assertNull(cache.get(123L, "client1"));
+	}
+
+	@Test
+	public void replacesStoredUserInfo() throws Exception {
+		createTable();
+		PerunUserInfo ui = PerunUserInfoCodecTest.fullUserInfo();
+		cache.put(123L, "client1", ui);
+		ui.setEmail("other@example.org");
+		cache.put(123L, "client1", ui);
+		assertEquals("other@example.org", cache.get(123L, "client1").getEmail());
+	}
+
+	@Test
+	public void ignoresOtherVersionAndExpiredEntries() throws Exception {
+		createTable();
+		cache.put(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		cache.setVersion(2);
+		assertNull(cache.get(123L, "client1"));
+		cache.setTtlSeconds(-1);
+		cache.put(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		assertNull(cache.get(123L, "client1"));
+	}
+
+	@Test
+	public void deletesEntries() throws Exception {
+		createTable();
+		cache.put(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		cache.put(123L, "client2", PerunUserInfoCodecTest.fullUserInfo());
+		cache.put(124L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		cache.delete(123L);
+		assertNull(cache.get(123L, "client1"));
+		assertNull(cache.get(123L, "client2"));
+		assertNotNull(cache.get(124L, "client1"));
+		cache.deleteAll();
+		assertNull(cache.get(124L, "client1"));
+	}
+
+	@Test
+	public void findsRecentEntries() throws Exception {
+		createTable();
+		cache.put(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		cache.put(124L, null, PerunUserInfoCodecTest.fullUserInfo());
+		List<PerunUserInfoDatabaseCache.StoredKey> keys = cache.findRecent(10);
+		assertEquals(2, keys.size());
+		assertTrue(keys.stream().anyMatch(k -> k.getUserId() == 124L && k.getClientId() == null));
+	}
+
+	@Test
+	public void storesInBackgroundOnFlush() throws Exception {
+		createTable();
+		PerunUserInfo ui = PerunUserInfoCodecTest.fullUserInfo();
+		cache.store(123L, "client1", ui);
+		cache.store(124L, "client1", ui);
+		assertNull(cache.get(123L, "client1"));
+		cache.delete(124L);
+		cache.flush();
+		PerunUserInfoCodecTest.assertSameUserInfo(ui, cache.get(123L, "client1"));
+		assertNull(cache.get(124L, "client1"));
+	}
+
+	@Test
+	public void dropsEntriesOverMaxPending() throws Exception {
+		createTable();
+		cache.setMaxPending(1);
+		cache.store(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		cache.store(124L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		cache.flush();
+		assertNotNull(cache.get(123L, "client1"));
+		assertNull(cache.get(124L, "client1"));
+		assertEquals(1, cache.getDropped());
+	}
+
+	@Test
+	public void purgesExpiredEntries() throws Exception {
+		createTable();
+		cache.put(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		cache.setTtlSeconds(-1);
+		cache.put(124L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		cache.purgeExpired();
+		assertEquals(1, cache.findRecent(10).size());
+		assertEquals(1, count());
+	}
+
+	@Test
+	public void disabledCacheDoesNotTouchDatabase() {
+		cache.setEnabled(false);
+		cache.put(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		assertNull(cache.get(123L, "client1"));
+	}
+
+	@Test
+	public void postgresScriptAddsColumnsToOriginalTable() throws Exception {
+		execute(ORIGINAL_TABLE);
+		runScript("psql/user_info_cache.sql");
+		cache.put(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		assertNotNull(cache.get(123L, "client1"));
+	}
+
+	@Test
+	public void mysqlScriptAddsColumnsToOriginalTable() throws Exception {
+		dataSource.setURL("jdbc:h2:mem:userinfo" + databases.incrementAndGet() + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		execute(ORIGINAL_TABLE);
+		runScript("mysql/user_info_cache.sql");
+		cache.put(123L, "client1", PerunUserInfoCodecTest.fullUserInfo());
+		assertNotNull(cache.get(123L, "client1"));
+	}
+
+	/**
+	 * Creates table user_info by the statement from psql_database_tables.sql.
+	 */
+	private void createTable() throws IOException, SQLException {
+		String script = read("psql/psql_database_tables.sql");
+		Matcher m = Pattern.compile("CREATE TABLE IF NOT EXISTS user_info \\(.*?\\);", Pattern.DOTALL).matcher(script);
+		assertTrue(m.find());
+		execute(m.group().replace("SERIAL", "INT AUTO_INCREMENT"));
+	}
+
+	private int count() throws SQLException {
+		try (Connection c = dataSource.getConnection(); Statement s = c.createStatement();
+			 ResultSet rs = s.executeQuery("SELECT COUNT(*) FROM user_info")) {
+			rs.next();
+			return rs.getInt(1);
+		}
+	}
+
+	private void runScript(String name) throws IOException, SQLException {
+		for (String statement : read(name).replaceAll("--.*", "").split(";")) {
+			if (!statement.trim().isEmpty()) {
+				execute(statement);
+			}
+		}
+	}
+
+	private static String read(String name) throws IOException {
+		return new String(Files.readAllBytes(Paths.get(DB_SCRIPTS + name)), StandardCharsets.UTF_8);
+	}
+
+	private void execute(String sql) throws SQLException {
+		try (Connection c = dataSource.getConnection(); Statement s = c.createStatement()) {
+			s.execute(sql);
+		}
+	}
+}
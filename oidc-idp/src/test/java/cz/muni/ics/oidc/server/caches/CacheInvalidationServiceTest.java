@@ -0,0 +1,91 @@
+package cz.muni.ics.oidc.server.caches;
+
+import cz.muni.ics.oidc.server.connectors.PerunConnector;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CacheInvalidationServiceTest {
+
+	private final List<String> invalidated = new ArrayList<>();
+	private CacheInvalidationService service;
+
+	@Before
+	public void setUp() {
+		service = new CacheInvalidationService();
+		service.setCaches(Collections.singletonList(new InvalidatableCache() {
+			@Override
+			public void invalidateUser(long userId) {
+				invalidated.add("user " + userId);
+			}
+
+			@Override
+			public void invalidateFacility(long facilityId) {
+				invalidated.add("facility " + facilityId);
+			}
+
+			@Override
+			public void invalidateGroup(long groupId) {
+				invalidated.add("group " + groupId);
+			}
+
+			@Override
+			public void invalidateAll() {
+				invalidated.add("all");
+			}
+		}));
+	}
+
+	@Test
+	public void membershipChangeInvalidatesOnlyTheUser() {
+		service.processAuditMessage("Member:[id=<1>, userId=<2>, voId=<5>, status=<VALID>] added to Group:[id=<3>, voId=<5>, name=<members>].");
+		assertEquals(Collections.singletonList("user 2"), invalidated);
+	}
+
+	@Test
+	public void groupChangeInvalidatesTheGroup() {
+		service.processAuditMessage("Group:[id=<3>, voId=<5>, name=<members>] updated.");
+		assertEquals(Collections.singletonList("group 3"), invalidated);
+	}
+
+	@Test
+	public void facilityChangeInvalidatesTheFacility() {
+		service.processAuditMessage("Facility:[id=<7>, name=<service>] updated.");
+		assertEquals(Collections.singletonList("facility 7"), invalidated);
+	}
+
+	@Test
+	public void groupChangeInvalidatesItsMembers() {
+		service.setPerunConnector(connector(Arrays.asList(2L, 4L)));
+		service.processAuditMessage("Group:[id=<3>, voId=<5>, name=<members>] updated.");
+		assertEquals(Arrays.asList("group 3", "user 2", "user 4"), invalidated);
+	}
+
+	@Test
+	public void unresolvedGroupDoesNotInvalidateAll() {
+		service.setPerunConnector(connector(null));
+		service.processAuditMessage("Group:[id=<3>, voId=<5>, name=<members>] updated.");
+		assertEquals(Collections.singletonList("group 3"), invalidated);
+		assertEquals(Long.valueOf(1), service.getStats().get("unresolvedGroups"));
+	}
+
+	/**
+	 * Connector returning the given members of any group, or failing when they are null.
+	 */
+	private static PerunConnector connector(List<Long> members) {
+		return (PerunConnector) Proxy.newProxyInstance(PerunConnector.class.getClassLoader(),
+				new Class<?>[]{PerunConnector.class}, (proxy, method, args) -> {
+					if (!method.getName().equals("getGroupMemberUserIds") || members == null) {
+						throw new IllegalStateException("Perun is not available");
+					}
+					return members;
+				});
+	}
+}
@@ -0,0 +1,26 @@
+package cz.muni.ics.oidc.server.claims;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClaimSourceInitContextTest {
+
+	@Test
+	public void numericPropertyFallsBackToDefaultWhenInvalid() {
+		Properties properties = new Properties();
+		properties.setProperty("custom.claim.ga4gh.valid", " 42 ");
+		properties.setProperty("custom.claim.ga4gh.notNumber", "10s");
+		properties.setProperty("custom.claim.ga4gh.tooSmall", "0");
+		properties.setProperty("custom.claim.ga4gh.tooBig", "3000000000");
+		ClaimSourceInitContext ctx = new ClaimSourceInitContext("custom.claim.ga4gh", properties);
+
+		assertEquals(42, ctx.getLongProperty("valid", 1, 1));
+		assertEquals(7, ctx.getLongProperty("missing", 7, 1));
+		assertEquals(7, ctx.getLongProperty("notNumber", 7, 1));
+		assertEquals(7, ctx.getIntProperty("tooSmall", 7, 1));
+		assertEquals(7, ctx.getIntProperty("tooBig", 7, 1));
+	}
+}
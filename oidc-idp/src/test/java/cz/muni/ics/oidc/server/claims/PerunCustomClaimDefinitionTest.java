@@ -0,0 +1,47 @@
+package cz.muni.ics.oidc.server.claims;
+
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class PerunCustomClaimDefinitionTest {
+
+	@Test
+	public void cachedTimeoutValueIsKeptPerClient() {
+		PerunCustomClaimDefinition definition = new PerunCustomClaimDefinition("profile", "claim", null, null);
+		definition.setTimeout(100, PerunCustomClaimDefinition.OnTimeout.CACHED, 10);
+		definition.rememberValue(123L, "client1", TextNode.valueOf("value1"));
+		definition.rememberValue(123L, null, TextNode.valueOf("value"));
+
+		assertEquals("value1", definition.getTimeoutValue(123L, "client1").asText());
+		assertEquals("value", definition.getTimeoutValue(123L, null).asText());
+		assertNull(definition.getTimeoutValue(123L, "client2"));
+		assertNull(definition.getTimeoutValue(124L, "client1"));
+	}
+
+	@Test
+	public void limitSizeKeepsAllowedValuesAndDoesNotChangeTheOriginal() {
+		PerunCustomClaimDefinition definition = new PerunCustomClaimDefinition("profile", "claim", null, null);
+		definition.setSizeLimits(2, Arrays.asList("a", "b"), Collections.singletonMap("client1", Collections.singletonList("c")));
+		JsonArray value = new JsonArray();
+		for (String item : Arrays.asList("a1", "c1", "b1", "a2", "c2")) {
+			value.add(item);
+		}
+
+		assertEquals("[\"a1\",\"b1\"]", definition.limitSize(value, null).toString());
+		assertEquals("[\"c1\",\"c2\"]", definition.limitSize(value, "client1").toString());
+		assertEquals(5, value.size());
+		assertEquals(2, definition.getTrimmedValues());
+
+		JsonElement notArray = value.get(0);
+		assertSame(notArray, definition.limitSize(notArray, null));
+	}
+}
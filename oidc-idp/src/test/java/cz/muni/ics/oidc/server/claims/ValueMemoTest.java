@@ -0,0 +1,33 @@
+package cz.muni.ics.oidc.server.claims;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ValueMemoTest {
+
+	@Test
+	public void groupNamesAreKeyedByConfiguration() {
+		ValueMemo memo = new ValueMemo();
+
+		String cesnet = memo.groupNameAARC("urn:geant:cesnet.cz:group:", "perun.cesnet.cz", "vo:my group");
+		String elixir = memo.groupNameAARC("urn:geant:elixir-europe.org:group:", "perun.elixir-czech.cz", "vo:my group");
+
+		assertEquals("urn:geant:cesnet.cz:group:vo:my%20group#perun.cesnet.cz", cesnet);
+		assertEquals("urn:geant:elixir-europe.org:group:vo:my%20group#perun.elixir-czech.cz", elixir);
+		assertSame(cesnet, memo.groupNameAARC("urn:geant:cesnet.cz:group:", "perun.cesnet.cz", "vo:my group"));
+		assertEquals(2L, memo.getStats().get("size"));
+	}
+
+	@Test
+	public void invalidateAllForgetsValues() {
+		ValueMemo memo = new ValueMemo();
+		memo.groupNameAARC("urn:geant:cesnet.cz:group:", "perun.cesnet.cz", "vo");
+
+		memo.invalidateGroup(1);
+		assertEquals(1L, memo.getStats().get("size"));
+		memo.invalidateAll();
+		assertEquals(0L, memo.getStats().get("size"));
+	}
+}
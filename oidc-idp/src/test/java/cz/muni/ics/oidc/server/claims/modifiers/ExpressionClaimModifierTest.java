@@ -0,0 +1,27 @@
+package cz.muni.ics.oidc.server.claims.modifiers;
+
+import cz.muni.ics.oidc.server.claims.ClaimModifierInitContext;
+import cz.muni.ics.oidc.server.claims.ClaimSourceInitContext;
+import cz.muni.ics.oidc.server.claims.ClaimSourceProduceContext;
+import cz.muni.ics.oidc.server.claims.sources.ExpressionClaimSource;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class ExpressionClaimModifierTest {
+
+	@Test
+	public void sourceAndModifierExpressionsOfOneClaimDoNotClash() {
+		Properties properties = new Properties();
+		properties.setProperty("custom.claim.login.expression", "sub + \"@Example.org\"");
+		properties.setProperty("custom.claim.login.modifierExpression", "value.toLowerCase()");
+		ExpressionClaimSource source = new ExpressionClaimSource(new ClaimSourceInitContext("custom.claim.login", properties));
+		ExpressionClaimModifier modifier = new ExpressionClaimModifier(new ClaimModifierInitContext("custom.claim.login", properties));
+
+		String value = source.produceValue(new ClaimSourceProduceContext(1L, "JDoe", null, null, null)).asText();
+		assertEquals("JDoe@Example.org", value);
+		assertEquals("jdoe@example.org", modifier.modify(value));
+	}
+}
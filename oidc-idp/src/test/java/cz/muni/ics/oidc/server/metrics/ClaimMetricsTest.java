@@ -0,0 +1,54 @@
+package cz.muni.ics.oidc.server.metrics;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import cz.muni.ics.oidc.server.claims.CachingClaimSource;
+import cz.muni.ics.oidc.server.claims.ClaimSource;
+import cz.muni.ics.oidc.server.claims.ClaimSourceInitContext;
+import cz.muni.ics.oidc.server.claims.ClaimSourceProduceContext;
+import cz.muni.ics.oidc.server.claims.PerunCustomClaimDefinition;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+public class ClaimMetricsTest {
+
+	@Test
+	public void metricsOfCachedSourceAreReported() {
+		ClaimSourceInitContext ctx = new ClaimSourceInitContext("custom.claim.claim", new Properties());
+		ClaimSource source = new CachingClaimSource(ctx, new SourceWithMetrics(ctx));
+		PerunCustomClaimDefinition definition = new PerunCustomClaimDefinition("profile", "claim", source, null);
+		ClaimMetrics metrics = new ClaimMetrics();
+		metrics.recordClaim(definition, 1, 1, TextNode.valueOf("value"));
+
+		Map<?, ?> claims = (Map<?, ?>) metrics.getMetrics().get("claims");
+		Map<?, ?> claim = (Map<?, ?>) claims.get("claim");
+		assertEquals(Collections.singletonMap("produced", 1), claim.get("source"));
+	}
+
+	private static class SourceWithMetrics extends ClaimSource implements MetricsSource {
+
+		SourceWithMetrics(ClaimSourceInitContext ctx) {
+			super(ctx);
+		}
+
+		@Override
+		public JsonNode produceValue(ClaimSourceProduceContext pctx) {
+			return TextNode.valueOf("value");
+		}
+
+		@Override
+		public String getMetricsName() {
+			return "test";
+		}
+
+		@Override
+		public Map<String, Object> getMetrics() {
+			return Collections.singletonMap("produced", 1);
+		}
+	}
+}